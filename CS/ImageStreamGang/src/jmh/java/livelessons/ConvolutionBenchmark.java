@@ -0,0 +1,120 @@
+package livelessons;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import livelessons.utils.Convolution;
+import livelessons.utils.Options;
+import livelessons.utils.PackedImage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This JMH benchmark measures how long the Convolution engine takes
+ * to blur a 12 megapixel (4000x3000) image with a 5x5 Gaussian
+ * kernel and to resize it to a thumbnail, with and without the
+ * Vector API kernels and parallel row bands.  Run it via "gradle
+ * jmh -PjmhArgs=ConvolutionBenchmark".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 3, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+public class ConvolutionBenchmark {
+    /**
+     * The width and height of the benchmark image.
+     */
+    private static final int sWIDTH = 4000;
+    private static final int sHEIGHT = 3000;
+
+    /**
+     * The 5x5 Gaussian kernel used by BlurFilter.
+     */
+    private static final Convolution.Kernel sKERNEL =
+        Convolution.Kernel.gaussian(2, 1.0);
+
+    /**
+     * Whether the Vector API kernels are used.
+     */
+    @Param({"false", "true"})
+    public String simd;
+
+    /**
+     * Whether tiles are processed in parallel row bands.
+     */
+    @Param({"false", "true"})
+    public String rowBands;
+
+    /**
+     * Whether the image has an alpha channel.
+     */
+    @Param({"false", "true"})
+    public boolean alpha;
+
+    /**
+     * The image that's filtered.
+     */
+    private PackedImage mSource;
+
+    /**
+     * The blurred image.
+     */
+    private PackedImage mBlurred;
+
+    /**
+     * The resized image.
+     */
+    private PackedImage mResized;
+
+    /**
+     * Make an image of random pixels and set the options for this
+     * trial.
+     */
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        Options.instance().parseArgs(new String[] {"-v", simd,
+                                                   "-b", rowBands});
+
+        Random random = new Random(42);
+        mSource = new PackedImage(sWIDTH, sHEIGHT, alpha);
+        int[] pixels = mSource.getPixels();
+        for (int i = 0; i < pixels.length; ++i)
+            pixels[i] = alpha
+                ? random.nextInt()
+                : random.nextInt() | 0xFF000000;
+
+        mBlurred = new PackedImage(sWIDTH, sHEIGHT, alpha);
+        mResized = new PackedImage(250, 188, alpha);
+    }
+
+    /**
+     * Blur the image with a 5x5 Gaussian kernel.
+     */
+    @Benchmark
+    public PackedImage gaussian5x5() {
+        Convolution.convolve(mSource, mBlurred, sKERNEL);
+        return mBlurred;
+    }
+
+    /**
+     * Resize the image to a thumbnail.
+     */
+    @Benchmark
+    public PackedImage resize() {
+        Convolution.resample(mSource, mResized);
+        return mResized;
+    }
+}
@@ -0,0 +1,144 @@
+package livelessons;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.StreamSupport;
+
+import livelessons.ImageStreamGangTest.TestsToRun;
+import livelessons.filters.Filter;
+import livelessons.filters.GrayScaleFilter;
+import livelessons.filters.NullFilter;
+import livelessons.streams.ImageStreamGang;
+import livelessons.utils.FileUtils;
+import livelessons.utils.Options;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * This JMH benchmark runs each of the ImageStreamGang implementation
+ * strategies listed in ImageStreamGangTest.TestsToRun against the
+ * bundled resource images.  Unlike ImageStreamGangTest, it runs each
+ * strategy in several forked JVMs with multiple warmup and
+ * measurement iterations and sweeps over the number of images and
+ * filters.  Run it via "gradle jmh", which also enables the GC
+ * profiler to report the allocation rate of each strategy.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 3, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+public class ImageStreamGangBenchmark {
+    /**
+     * All the filters that can be applied, the first filterCount of
+     * which are used by each benchmark.
+     */
+    private static final Filter[] sAllFilters = {
+        new NullFilter(),
+        new GrayScaleFilter()
+    };
+
+    /**
+     * The TestsToRun strategy to benchmark.  Since no values are
+     * given, JMH runs every constant of the enum, so new strategies
+     * are benchmarked automatically.
+     */
+    @Param
+    public TestsToRun strategy;
+
+    /**
+     * The number of bundled images to process, which is capped at the
+     * number of bundled images.
+     */
+    @Param({"7", "14"})
+    public int imageCount;
+
+    /**
+     * The number of filters to apply to each image.
+     */
+    @Param({"1", "2"})
+    public int filterCount;
+
+    /**
+     * The filters applied to each image.
+     */
+    private Filter[] mFilters;
+
+    /**
+     * The URLs of the images to process.
+     */
+    private List<URL> mUrls;
+
+    /**
+     * Select the filters and images for this trial.
+     */
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        mFilters = Arrays.copyOf(sAllFilters,
+                                 Math.min(filterCount, sAllFilters.length));
+
+        // The bundled resource images are split across several
+        // lists, so concatenate all of them.
+        Iterable<List<URL>> urlLists = () -> Options
+            .instance()
+            .getUrlIterator();
+        mUrls = StreamSupport
+            // Convert the lists of URLs into a stream.
+            .stream(urlLists.spliterator(), false)
+
+            // Flatten the lists into a stream of URLs.
+            .flatMap(List::stream)
+
+            // Only keep the requested number of images.
+            .limit(imageCount)
+
+            // Collect the URLs into a list.
+            .collect(toList());
+    }
+
+    /**
+     * Delete the images stored by the previous invocation, so every
+     * invocation downloads, filters, and stores all the images.  The
+     * invocations are long enough (i.e., many milliseconds) that the
+     * overhead of a per-invocation setup method doesn't matter.
+     */
+    @Setup(Level.Invocation)
+    public void setUpInvocation() {
+        FileUtils.deleteAllFiles(mFilters);
+    }
+
+    /**
+     * Runs the selected strategy once over all the selected images.
+     *
+     * @return The execution times, so JMH doesn't eliminate the work
+     */
+    @Benchmark
+    public List<Long> runStrategy() {
+        ImageStreamGang streamGang = ImageStreamGangTest
+            .makeImageStreamGang(mFilters,
+                                 List.of(mUrls).iterator(),
+                                 strategy);
+
+        // Run the strategy, which returns once all the images have
+        // been stored.
+        streamGang.run();
+
+        return streamGang.executionTimes();
+    }
+}
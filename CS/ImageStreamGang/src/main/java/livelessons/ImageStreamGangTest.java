@@ -2,46 +2,62 @@ package livelessons;
 
 import java.net.URL;
 import java.util.*;
+import java.util.stream.Stream;
 
 import livelessons.streams.*;
+import livelessons.utils.DecodedImageCache;
+import livelessons.utils.DownloadLimiter;
 import livelessons.utils.FileUtils;
+import livelessons.utils.FilterResultCache;
+import livelessons.utils.ImageScheduler;
 import livelessons.utils.Options;
+import livelessons.utils.PipelineMetrics;
+import livelessons.utils.RasterPool;
+import livelessons.filters.BlurFilter;
+import livelessons.filters.EdgeDetectFilter;
 import livelessons.filters.Filter;
 import livelessons.filters.GrayScaleFilter;
+import livelessons.filters.InvertFilter;
 import livelessons.filters.NullFilter;
+import livelessons.filters.ResizeFilter;
+import livelessons.filters.SharpenFilter;
+import livelessons.filters.ThresholdFilter;
 
 /**
  * This class is the main entry point for the Java console version of
  * the ImageStreamGang app.  It runs all the implementation strategies
  * (including strategies implemented via Java sequential streams,
- * parallel streams, completable futures, RxJava, and Project Reactor
- * frameworks) and provides apples-to-apples comparisons of these
- * strategies in terms of there performance and scalability.
+ * parallel streams, completable futures, virtual threads, RxJava,
+ * and Project Reactor frameworks) and provides apples-to-apples
+ * comparisons of these strategies in terms of there performance and
+ * scalability.
  */
 public class ImageStreamGangTest {
     /**
      * Enumerated type that lists all the implementation strategies to
      * test.
      */
-    enum TestsToRun {
+    public enum TestsToRun {
         SEQUENTIAL_STREAM,
         PARALLEL_STREAM,
         COMPLETABLE_FUTURES_1,
         COMPLETABLE_FUTURES_2,
+        VIRTUAL_THREADS,
         RXJAVA1, 
         RXJAVA2,
+        RXJAVA_BATCHED,
         REACTOR1,
-        REACTOR2
+        REACTOR2,
+        REACTOR_NIO,
+        BOUNDED_PIPELINE,
+        STAGED_PIPELINE
     }
     
     /**
-     * Array of Filters to apply to the images.
+     * Array of Filters to apply to the images, which is made by
+     * makeFilters() once the options have been parsed.
      */
-    private final static Filter[] mFilters = {
-        new NullFilter(),
-        new GrayScaleFilter()
-        // Other filters can go here..
-    };
+    private static Filter[] mFilters;
 
     /**
      * Keep track of the timing results of the ImageStreamGang
@@ -60,6 +76,9 @@ public class ImageStreamGangTest {
         // Initializes the Options singleton.
         Options.instance().parseArgs(args);
 
+        // Make the filters to apply to the images.
+        mFilters = makeFilters();
+
         // Run all the tests.
         runTests();
 
@@ -74,12 +93,16 @@ public class ImageStreamGangTest {
         // Warm up the fork-join pool.
         warmUpForkJoinPool();
 
+        // Only report the metrics of the tests.
+        PipelineMetrics.instance().reset();
+
         // Iterate thru the implementation strategies and test them.
         for (TestsToRun test : TestsToRun.values()) {
             System.out.println("Starting " + test);
 
-            // Delete any the filtered images from the previous run.
-            FileUtils.deleteAllFiles(mFilters);
+            // Delete any the filtered images from the previous run,
+            // unless only changed images are recomputed.
+            resetFilteredImages();
 
             // Make an ImageStreamGang object via the factory method.
             ImageStreamGang streamGang =
@@ -104,15 +127,64 @@ public class ImageStreamGangTest {
 
         // Print out all the timing results.
         printTimingResults(mResultsMap);
+
+        // Print out the decoded image cache statistics.
+        if (DecodedImageCache.instance().enabled())
+            System.out.println("\n" + DecodedImageCache.instance());
+
+        // Print out the download limiter statistics.
+        if (DownloadLimiter.instance().enabled())
+            System.out.println("\n" + DownloadLimiter.instance());
+
+        // Print out the image scheduler statistics.
+        if (ImageScheduler.instance().enabled())
+            System.out.println("\n" + ImageScheduler.instance());
+
+        // Print out the raster pool statistics.
+        if (RasterPool.instance().enabled())
+            System.out.println("\n" + RasterPool.instance());
+
+        // Print out the per-stage pipeline metrics.
+        if (PipelineMetrics.instance().enabled())
+            System.out.println("\n" + PipelineMetrics.instance());
+    }
+
+    /**
+     * Factory method that creates the NullFilter, the
+     * GrayScaleFilter, and any extra filters selected in Options,
+     * making sure each of them has an output directory (composed
+     * filters don't create their own).
+     */
+    private static Filter[] makeFilters() {
+        return Stream
+            .concat(Stream.of(new NullFilter(),
+                              new GrayScaleFilter()),
+                    Options.instance()
+                    .getExtraFilters()
+                    .stream()
+                    .map(extraFilter -> switch (extraFilter) {
+                        case BLUR -> new BlurFilter();
+                        case SHARPEN -> new SharpenFilter();
+                        case EDGE_DETECT -> new EdgeDetectFilter();
+                        case RESIZE -> new ResizeFilter();
+                        case THRESHOLD -> new ThresholdFilter();
+                        case INVERT -> new InvertFilter();
+                        case GRAYSCALE_THRESHOLD_INVERT -> new GrayScaleFilter()
+                            .andThen(new ThresholdFilter())
+                            .andThen(new InvertFilter());
+                    }))
+            .peek(filter -> filter.getFilePath().mkdirs())
+            .toArray(Filter[]::new);
     }
 
     /**
      * Factory method that creates the designated type of
-     * ImageStreamGang subclass implementation.
+     * ImageStreamGang subclass implementation.  It's package-private
+     * so ImageStreamGangBenchmark can create the same strategies.
      */
-    private static ImageStreamGang makeImageStreamGang(Filter[] filters,
-                                                       Iterator<List<URL>> urlIterator,
-                                                       TestsToRun choice) {
+    static ImageStreamGang makeImageStreamGang(Filter[] filters,
+                                               Iterator<List<URL>> urlIterator,
+                                               TestsToRun choice) {
         switch (choice) {
         case SEQUENTIAL_STREAM:
             return new ImageStreamSequential(filters, 
@@ -126,19 +198,33 @@ public class ImageStreamGangTest {
         case COMPLETABLE_FUTURES_2:
             return new ImageStreamCompletableFuture2(filters,
                                                      urlIterator);
+        case VIRTUAL_THREADS:
+            return new ImageStreamVirtualThreads(filters,
+                                                 urlIterator);
         case RXJAVA1:
             return new ImageStreamRxJava1(filters,
                                          urlIterator);
         case RXJAVA2:
                 return new ImageStreamRxJava2(filters,
                                               urlIterator);
+        case RXJAVA_BATCHED:
+            return new ImageStreamRxJavaBatched(filters,
+                                                urlIterator);
         case REACTOR1:
-                return new ImageStreamRxJava2(filters,
-                                              urlIterator);
-
+            return new ImageStreamReactor1(filters,
+                                           urlIterator);
         case REACTOR2:
-                return new ImageStreamRxJava2(filters,
-                                              urlIterator);
+            return new ImageStreamReactor2(filters,
+                                           urlIterator);
+        case REACTOR_NIO:
+            return new ImageStreamReactorNio(filters,
+                                             urlIterator);
+        case BOUNDED_PIPELINE:
+            return new ImageStreamBoundedPipeline(filters,
+                                                  urlIterator);
+        case STAGED_PIPELINE:
+            return new ImageStreamStagedPipeline(filters,
+                                                 urlIterator);
         }
         return null;
     }
@@ -199,6 +285,19 @@ public class ImageStreamGangTest {
         }
     }
 
+    /**
+     * Delete all the filtered images so they are all recomputed, or
+     * in incremental mode keep them (so only images whose source
+     * content or filter version changed are recomputed) and just
+     * forget the claims of the previous run.
+     */
+    private static void resetFilteredImages() {
+        if (Options.instance().incrementalEnabled())
+            FilterResultCache.instance().releaseAll();
+        else
+            FileUtils.deleteAllFiles(mFilters);
+    }
+
     /**
      * Warm up the threads in the common fork-join pool so the timing
      * results will be more accurate.
@@ -206,8 +305,9 @@ public class ImageStreamGangTest {
     private static void warmUpForkJoinPool() {
         System.out.println("Warming up the fork-join pool");
 
-        // Delete any the filtered images from the previous run.
-        FileUtils.deleteAllFiles(mFilters);
+        // Delete any the filtered images from the previous run,
+        // unless only changed images are recomputed.
+        resetFilteredImages();
 
         // Create and run the ImageStreamParallel test to warm up
         // threads in the common fork-join pool.
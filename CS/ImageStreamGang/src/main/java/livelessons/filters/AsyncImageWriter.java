@@ -0,0 +1,238 @@
+package livelessons.filters;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+
+import livelessons.utils.BlockingTask;
+import livelessons.utils.FilterResultCache;
+import livelessons.utils.Image;
+import livelessons.utils.Options;
+import livelessons.utils.RasterPool;
+
+/**
+ * This class implements the Singleton pattern to decouple writing
+ * filtered images from the threads that filter them.  Filter threads
+ * hand finished images off to a bounded queue that's drained by a
+ * small pool of writer threads, so CPU-bound filtering and I/O-bound
+ * encoding/writing overlap.  Each writer thread takes all the queued
+ * images (up to a limit) at once, so it contends for the queue less
+ * often.  A full queue blocks the filter threads, which bounds the
+ * number of filtered images waiting to be written.  Images that
+ * couldn't be written are marked as failed and counted, since their
+ * filter threads have already moved on.  The number of writer threads
+ * is set via Options, where 0 disables this class and images are
+ * written synchronously.
+ */
+public class AsyncImageWriter {
+    /** The singleton @a AsyncImageWriter instance. */
+    private static AsyncImageWriter mUniqueInstance = null;
+
+    /**
+     * The maximum number of images waiting to be written.
+     */
+    private static final int sQUEUE_CAPACITY = 64;
+
+    /**
+     * The maximum number of images a writer thread takes at once.
+     */
+    private static final int sMAX_BATCH_SIZE = 16;
+
+    /**
+     * A request to write an image.
+     *
+     * @param decorator The decorator whose directory the image is written to
+     * @param image The image to write
+     * @param future Completed with the image (or null) when it's written
+     */
+    private record WriteRequest(OutputFilterDecorator decorator,
+                                Image image,
+                                CompletableFuture<Image> future) {
+    }
+
+    /**
+     * The images waiting to be written.
+     */
+    private final BlockingQueue<WriteRequest> mQueue =
+        new ArrayBlockingQueue<>(sQUEUE_CAPACITY);
+
+    /**
+     * The number of writer threads.
+     */
+    private final int mThreadCount;
+
+    /**
+     * The number of submitted images that haven't been written yet,
+     * which is guarded by "this".
+     */
+    private int mPending;
+
+    /**
+     * The number of images that couldn't be written since the last
+     * call to flush(), which is guarded by "this".
+     */
+    private int mFailures;
+
+    /**
+     * Method to return the one and only singleton uniqueInstance.
+     */
+    public static synchronized AsyncImageWriter instance() {
+        if (mUniqueInstance == null)
+            mUniqueInstance =
+                new AsyncImageWriter(Options.instance().getWriterThreads());
+
+        return mUniqueInstance;
+    }
+
+    /**
+     * Make the constructor private for a singleton.  It starts the
+     * writer threads.
+     */
+    private AsyncImageWriter(int threadCount) {
+        mThreadCount = threadCount;
+
+        for (int i = 0; i < threadCount; ++i) {
+            Thread thr = new Thread(this::drain, "AsyncImageWriter-" + i);
+            thr.setDaemon(true);
+            thr.start();
+        }
+    }
+
+    /**
+     * @return true if images are written asynchronously, else false.
+     */
+    public boolean enabled() {
+        return mThreadCount > 0;
+    }
+
+    /**
+     * Queue the {@code image} to be written by the {@code decorator},
+     * blocking if the queue is full.
+     *
+     * @return A future that's completed with the image once it's
+     *         written, or with null if it couldn't be written
+     */
+    CompletableFuture<Image> submit(OutputFilterDecorator decorator,
+                                    Image image) {
+        WriteRequest request =
+            new WriteRequest(decorator, image, new CompletableFuture<>());
+
+        synchronized (this) {
+            mPending++;
+        }
+
+        // Let the common fork-join pool compensate if this call
+        // blocks one of its threads.
+        BlockingTask.runInManagedBlock(() -> {
+                try {
+                    mQueue.put(request);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    abandon(request);
+                }
+            });
+        return request.future();
+    }
+
+    /**
+     * Wait until all the submitted images have been written.
+     *
+     * @return The number of images that couldn't be written since
+     *         the last call to flush()
+     */
+    public synchronized int flush() {
+        try {
+            while (mPending > 0)
+                wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        int failures = mFailures;
+        mFailures = 0;
+        return failures;
+    }
+
+    /**
+     * Note that the image of {@code request} is done, i.e., it was
+     * written if {@code result} isn't null, and wake up any threads
+     * waiting in flush() if no images are left.
+     */
+    private void completed(WriteRequest request,
+                           Image result) {
+        if (result == null)
+            request.image().setSucceeded(false);
+
+        synchronized (this) {
+            if (result == null)
+                mFailures++;
+            if (--mPending == 0)
+                notifyAll();
+        }
+        request.future().complete(result);
+    }
+
+    /**
+     * Give up on writing the image of {@code request}, returning its
+     * raster to the RasterPool and releasing its claim in the
+     * FilterResultCache, so a later run can retry it.
+     */
+    private void abandon(WriteRequest request) {
+        Image image = request.image();
+        RasterPool.instance().release(image);
+        FilterResultCache.instance().release(image.getSourceURL(),
+                                             request.decorator().getName());
+        completed(request, null);
+    }
+
+    /**
+     * Write the image of one {@code request} and complete it.
+     */
+    private void write(WriteRequest request) {
+        Image result = null;
+        try {
+            result = request.decorator().write(request.image());
+        } catch (RuntimeException | OutOfMemoryError e) {
+            // Keep the writer thread alive and report the failure.
+            System.out.println("unable to write " + request.image().getFileName()
+                               + " " + e);
+        } finally {
+            // Complete the request even if another Error is thrown,
+            // so flush() doesn't wait for it forever.
+            completed(request, result);
+        }
+    }
+
+    /**
+     * Runs in each writer thread to write batches of queued images.
+     */
+    private void drain() {
+        List<WriteRequest> batch = new ArrayList<>(sMAX_BATCH_SIZE);
+
+        for (;;) {
+            try {
+                // Wait for one request and take any others that are
+                // already queued.
+                batch.add(mQueue.take());
+                mQueue.drainTo(batch, sMAX_BATCH_SIZE - 1);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            Iterator<WriteRequest> requests = batch.iterator();
+            try {
+                // Write the images in the order they were queued.
+                while (requests.hasNext())
+                    write(requests.next());
+            } finally {
+                // Abandon the rest of the batch if a write threw an
+                // Error that ends this thread.
+                requests.forEachRemaining(this::abandon);
+                batch.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package livelessons.filters;
+
+import java.io.File;
+import java.util.List;
+
+import livelessons.utils.Convolution;
+
+/**
+ * A Filter subclass that blurs a downloaded image with a Gaussian
+ * kernel, which is 5x5 by default.
+ */
+public class BlurFilter
+       extends ConvolutionFilter {
+    /**
+     * The default radius of the kernel.
+     */
+    private static final int sDEFAULT_RADIUS = 2;
+
+    /**
+     * Constructs a default BlurFilter and creates the output
+     * directory for this filter.
+     */
+    public BlurFilter() {
+        super(List.of(gaussian(sDEFAULT_RADIUS)));
+
+        // Create the path to the filter directory.
+        File externalFile = getFilePath();
+
+        // Create the filter directory.
+        externalFile.mkdirs();
+    }
+
+    /**
+     * Constructs a BlurFilter with the given name and kernel {@code
+     * radius}.  See GrayScaleFilter for explanation of filter naming.
+     */
+    public BlurFilter(String name, int radius) {
+        super(name, List.of(gaussian(radius)));
+    }
+
+    /**
+     * @return A Gaussian kernel with the given {@code radius} whose
+     *         weights fall off to about 5% at its edges
+     */
+    static Convolution.Kernel gaussian(int radius) {
+        return Convolution.Kernel.gaussian(radius,
+                                           Math.max(0.5, radius / 2.0));
+    }
+}
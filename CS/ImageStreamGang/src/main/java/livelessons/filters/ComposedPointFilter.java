@@ -0,0 +1,97 @@
+package livelessons.filters;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.stream.Collectors.joining;
+
+/**
+ * A PointFilter that applies a chain of point filters to each pixel,
+ * which is made by PointFilter.andThen().  Composing a composed
+ * filter flattens the chain, so each stage is applied by a single
+ * loop.  It's named after the filters in the chain, e.g.,
+ * "GrayScaleFilter-InvertFilter".  Like the filters that are
+ * constructed with a custom name, it doesn't create its output
+ * directory.  Plays the role of the "Composite" in the Composite
+ * pattern.
+ */
+final class ComposedPointFilter
+       extends PointFilter {
+    /**
+     * The filters in the order they're applied.
+     */
+    private final List<PointFilter> mFilters;
+
+    /**
+     * Constructor initializes the field and names the filter.
+     */
+    ComposedPointFilter(PointFilter first,
+                        PointFilter second) {
+        mFilters = new ArrayList<>();
+        add(first);
+        add(second);
+
+        setName(mFilters
+                .stream()
+                .map(Filter::getName)
+                .collect(joining("-")));
+    }
+
+    /**
+     * Add the {@code filter}, or the filters it's composed of, to the
+     * end of the chain.
+     */
+    private void add(PointFilter filter) {
+        if (filter instanceof ComposedPointFilter composed)
+            mFilters.addAll(composed.mFilters);
+        else
+            mFilters.add(filter);
+    }
+
+    /**
+     * Applies each filter in the chain to one {@code argb} pixel.
+     */
+    @Override
+    public int filterPixel(int argb) {
+        for (PointFilter filter : mFilters)
+            argb = filter.filterPixel(argb);
+        return argb;
+    }
+
+    /**
+     * Applies the first filter to the row and then each of the other
+     * filters to the filtered row in place, while it's still in the
+     * cache.
+     */
+    @Override
+    public void filterRow(int[] source,
+                          int sourceOffset,
+                          int[] filtered,
+                          int filteredOffset,
+                          int length) {
+        mFilters.get(0).filterRow(source,
+                                  sourceOffset,
+                                  filtered,
+                                  filteredOffset,
+                                  length);
+
+        for (int k = 1; k < mFilters.size(); ++k)
+            mFilters.get(k).filterRow(filtered,
+                                      filteredOffset,
+                                      filtered,
+                                      filteredOffset,
+                                      length);
+    }
+
+    /**
+     * Returns a version that changes whenever the version of any
+     * filter in the chain changes.
+     */
+    @Override
+    public int getVersion() {
+        int version = 0;
+        for (PointFilter filter : mFilters)
+            version = 31 * version + filter.getVersion();
+        return version;
+    }
+}
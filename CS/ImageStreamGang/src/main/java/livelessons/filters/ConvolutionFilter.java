@@ -0,0 +1,83 @@
+package livelessons.filters;
+
+import java.util.List;
+
+import livelessons.platspec.PlatSpec;
+import livelessons.utils.Convolution;
+import livelessons.utils.Image;
+import livelessons.utils.PackedImage;
+
+/**
+ * An abstract Filter that convolves an image with one or more
+ * separable kernels via the Convolution engine and combines the
+ * results into the filtered pixels.  Plays the role of the "Abstract
+ * Class" in the Template Method pattern.
+ */
+public abstract class ConvolutionFilter
+       extends Filter
+       implements Convolution.Combiner {
+    /**
+     * The kernels the image is convolved with.
+     */
+    private final List<Convolution.Kernel> mKernels;
+
+    /**
+     * Constructs the filter with the default name and the {@code
+     * kernels} it convolves images with.
+     */
+    public ConvolutionFilter(List<Convolution.Kernel> kernels) {
+        mKernels = kernels;
+    }
+
+    /**
+     * Constructs the filter with a custom name and the {@code
+     * kernels} it convolves images with.
+     */
+    public ConvolutionFilter(String filterName,
+                             List<Convolution.Kernel> kernels) {
+        super(filterName);
+        mKernels = kernels;
+    }
+
+    /**
+     * Convolves the pixels of the {@code image} with the kernels and
+     * combines the results into a new image whose raster is borrowed
+     * from the RasterPool.
+     */
+    @Override
+    protected Image applyFilter(Image image) {
+        PackedImage source = image.getPackedImage();
+        PackedImage filtered =
+            PlatSpec.borrowPackedImage(source.getWidth(),
+                                       source.getHeight(),
+                                       source.hasAlpha());
+
+        Convolution.convolve(source, filtered, mKernels, this);
+
+        Image result = new Image(image.getSourceURL(), filtered);
+        result.setRecyclable(true);
+        return result;
+    }
+
+    /**
+     * This hook method can be overridden by a subclass to combine the
+     * convolved channels differently.  By default it stores the
+     * result of the first kernel.
+     */
+    @Override
+    public void combineRow(float[][] source,
+                           int sourceOffset,
+                           float[][][] convolved,
+                           int convolvedOffset,
+                           int channels,
+                           int[] target,
+                           int targetOffset,
+                           int length) {
+        Convolution.packRow(convolved[0],
+                            convolvedOffset,
+                            channels,
+                            target,
+                            targetOffset,
+                            length);
+    }
+}
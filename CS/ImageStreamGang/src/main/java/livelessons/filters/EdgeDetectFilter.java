@@ -0,0 +1,83 @@
+package livelessons.filters;
+
+import java.io.File;
+import java.util.List;
+
+import livelessons.utils.Convolution;
+
+/**
+ * A Filter subclass that detects the edges in a downloaded image
+ * with the Sobel operator.  Each color channel is convolved with a
+ * horizontal and a vertical gradient kernel, which are both
+ * separable, and the filtered channel is the magnitude of the
+ * gradient, so edges are bright and flat areas are black.
+ */
+public class EdgeDetectFilter
+       extends ConvolutionFilter {
+    /**
+     * The Sobel kernels for the horizontal and vertical gradients.
+     */
+    private static final List<Convolution.Kernel> sSOBEL_KERNELS =
+        List.of(new Convolution.Kernel(new float[] {-1, 0, 1},
+                                       new float[] {1, 2, 1}),
+                new Convolution.Kernel(new float[] {1, 2, 1},
+                                       new float[] {-1, 0, 1}));
+
+    /**
+     * Constructs a default EdgeDetectFilter and creates the output
+     * directory for this filter.
+     */
+    public EdgeDetectFilter() {
+        super(sSOBEL_KERNELS);
+
+        // Create the path to the filter directory.
+        File externalFile = getFilePath();
+
+        // Create the filter directory.
+        externalFile.mkdirs();
+    }
+
+    /**
+     * Constructs an EdgeDetectFilter with the given name.  See
+     * GrayScaleFilter for explanation of filter naming.
+     */
+    public EdgeDetectFilter(String name) {
+        super(name, sSOBEL_KERNELS);
+    }
+
+    /**
+     * Stores the magnitude of the gradient of each color channel and
+     * keeps the alpha channel of the source.
+     */
+    @Override
+    public void combineRow(float[][] source,
+                           int sourceOffset,
+                           float[][][] convolved,
+                           int convolvedOffset,
+                           int channels,
+                           int[] target,
+                           int targetOffset,
+                           int length) {
+        float[][] horizontal = convolved[0];
+        float[][] vertical = convolved[1];
+
+        for (int c = Convolution.RED; c <= Convolution.BLUE; ++c)
+            for (int i = convolvedOffset; i < convolvedOffset + length; ++i) {
+                float dx = horizontal[c][i];
+                float dy = vertical[c][i];
+                horizontal[c][i] = (float) Math.sqrt(dx * dx + dy * dy);
+            }
+
+        if (channels == 4)
+            System.arraycopy(source[Convolution.ALPHA], sourceOffset,
+                             horizontal[Convolution.ALPHA], convolvedOffset,
+                             length);
+
+        Convolution.packRow(horizontal,
+                            convolvedOffset,
+                            channels,
+                            target,
+                            targetOffset,
+                            length);
+    }
+}
@@ -2,6 +2,7 @@ package livelessons.filters;
 
 import livelessons.utils.Image;
 import livelessons.utils.Options;
+import livelessons.utils.PipelineMetrics;
 
 import java.io.File;
 
@@ -49,17 +50,47 @@ public abstract class Filter {
     /**
      * This template method calls the applyFilter() hook method (which
      * must be defined by a subclass) to filter the @a imageEntity
-     * parameter and sets the filterName of the result to the name of
-     * the filter.
+     * parameter, records how long it took in PipelineMetrics, and
+     * sets the filterName of the result to the name of the filter.
+     * It returns null without filtering if the stored result is
+     * already current (in incremental mode).
      */
     public Image filter(Image image) {
+        if (!image.isStale(this))
+            return null;
+
+        PipelineMetrics metrics = PipelineMetrics.instance();
+        long start = metrics.start();
+
         // Call the applyFilter() hook method.
         Image filteredResult = applyFilter(image);
-        if (filteredResult != null)
+
+        metrics.recordFilter(getName(), start);
+        return named(filteredResult, image);
+    }
+
+    /**
+     * Sets the filterName of the {@code filteredResult} to the name
+     * of this filter and gives it the content hash of the original
+     * {@code image}.
+     */
+    protected Image named(Image filteredResult, Image image) {
+        if (filteredResult != null) {
             filteredResult.setFilterName(this);
+            filteredResult.setContentHash(image.getContentHash());
+        }
         return filteredResult;
     }
 
+    /**
+     * Gets the version of the filter, which must be incremented
+     * whenever a change to the filter changes its output, so images
+     * stored by older versions are recomputed in incremental mode.
+     */
+    public int getVersion() {
+        return 1;
+    }
+
     /**
      * Sets the name of the filter.
      */
@@ -39,4 +39,26 @@ public abstract class FilterDecorator
     protected Image applyFilter(Image image) {
         return decorate(mFilter.filter(image));
     }
+
+    /**
+     * Returns the version of the decorated filter.
+     */
+    @Override
+    public int getVersion() {
+        return mFilter.getVersion();
+    }
+
+    /**
+     * Overrides the template method so it doesn't record the time of
+     * the decorator in PipelineMetrics, since mFilter records the
+     * time it takes to filter and decorate() records its own stages.
+     * Images whose stored result is already current are skipped.
+     */
+    @Override
+    public Image filter(Image image) {
+        if (!image.isStale(this))
+            return null;
+
+        return named(applyFilter(image), image);
+    }
 }
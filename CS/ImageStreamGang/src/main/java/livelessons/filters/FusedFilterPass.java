@@ -0,0 +1,82 @@
+package livelessons.filters;
+
+import java.util.Iterator;
+import java.util.List;
+
+import livelessons.platspec.PlatSpec;
+import livelessons.utils.Image;
+import livelessons.utils.PipelineMetrics;
+
+import static java.util.stream.Collectors.joining;
+
+/**
+ * Applies a List of Filters to an Image so that all the PointFilters
+ * in the List share a single pass over the pixels of the Image,
+ * i.e., the source pixels are read (and its raster traversed) once
+ * rather than once per filter.  Filters that aren't point filters are
+ * applied individually as usual.
+ */
+public final class FusedFilterPass {
+    /**
+     * A utility class should always define a private constructor.
+     */
+    private FusedFilterPass() {
+    }
+
+    /**
+     * Apply all the {@code filters} to the {@code image}.
+     *
+     * @return A List containing the filtered image for each filter,
+     *         in the same order as {@code filters}, which is null for
+     *         filters whose stored images are current
+     */
+    public static List<Image> filter(List<Filter> filters,
+                                     Image image) {
+        List<PointFilter> pointFilters = filters
+            // Convert the list of filters into a stream.
+            .stream()
+
+            // Only keep the per-pixel-pure filters.
+            .filter(PointFilter.class::isInstance)
+            .map(PointFilter.class::cast)
+
+            // Skip the filters whose stored images are current.
+            .filter(image::isStale)
+
+            // Collect the point filters into a list.
+            .toList();
+
+        // Apply all the point filters in one pass, which is recorded
+        // in PipelineMetrics as a filter named after all of them.
+        PipelineMetrics metrics = PipelineMetrics.instance();
+        long start = metrics.start();
+        Iterator<Image> fusedImages = pointFilters.isEmpty()
+            ? List.<Image>of().iterator()
+            : PlatSpec.applyPointFilters(image, pointFilters).iterator();
+        if (!pointFilters.isEmpty())
+            metrics.recordFilter(pointFilters
+                                 .stream()
+                                 .map(Filter::getName)
+                                 .collect(joining("+")),
+                                 start);
+
+        return filters
+            // Convert the list of filters into a sequential stream so
+            // the fused images are consumed in order.
+            .stream()
+
+            // Use the fused result for point filters and apply all
+            // other filters individually.
+            .map(filter -> {
+                    if (!(filter instanceof PointFilter))
+                        return filter.filter(image);
+                    if (!image.isStale(filter))
+                        return null;
+
+                    return filter.named(fusedImages.next(), image);
+                })
+
+            // Collect the filtered images into a list.
+            .toList();
+    }
+}
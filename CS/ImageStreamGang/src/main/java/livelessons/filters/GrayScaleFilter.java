@@ -2,14 +2,18 @@ package livelessons.filters;
 
 import livelessons.platspec.PlatSpec;
 import livelessons.utils.Image;
+import livelessons.utils.Options;
 
 import java.io.File;
 
 /**
  * A Filter sublcass that converts a downloaded image to grayscale.
+ * Since each grayscale pixel only depends on the original pixel, it's
+ * a PointFilter that can be fused with other point filters, and it
+ * provides a SIMD kernel that converts a vector of pixels at a time.
  */
 public class GrayScaleFilter 
-       extends Filter {
+       extends SimdPointFilter {
     /**
      * Constructs a default GrayScaleFilter and creates the output
      * directory for this filter.
@@ -37,12 +41,66 @@ public class GrayScaleFilter
 
     /**
      * Uses the common color transformation values for grayscale
-     * conversion using a pixel-by-pixel coloring algorithm.
+     * conversion using the filter implementation selected in
+     * Options.
      */
     @Override
     protected Image applyFilter(Image image) {
         // Forward to the platform-specific implementation of this
         // filter.
-        return PlatSpec.applyFilter(image);
+        switch (Options.instance().getFilterImplementation()) {
+        case RASTER:
+            return PlatSpec.applyFilterRaster(image);
+        case PACKED:
+            return super.applyFilter(image);
+        default:
+            return PlatSpec.applyFilter(image);
+        }
+    }
+
+    /**
+     * Converts one {@code argb} pixel to grayscale.  Transparent
+     * pixels are left unchanged.
+     */
+    @Override
+    public int filterPixel(int argb) {
+        if ((argb >>> 24) == 0)
+            return argb;
+
+        int gray = PlatSpec.luminance((argb >> 16) & 0xFF,
+                                      (argb >> 8) & 0xFF,
+                                      argb & 0xFF);
+        return 0xFF000000 | gray << 16 | gray << 8 | gray;
+    }
+
+    /**
+     * Converts a row of pixels to grayscale in a tight loop.
+     */
+    @Override
+    protected void filterRowScalar(int[] source,
+                                   int sourceOffset,
+                                   int[] filtered,
+                                   int filteredOffset,
+                                   int length) {
+        for (int i = 0; i < length; ++i) {
+            int argb = source[sourceOffset + i];
+            if ((argb >>> 24) == 0)
+                filtered[filteredOffset + i] = argb;
+            else {
+                int gray = PlatSpec.luminance((argb >> 16) & 0xFF,
+                                              (argb >> 8) & 0xFF,
+                                              argb & 0xFF);
+                filtered[filteredOffset + i] =
+                    0xFF000000 | gray << 16 | gray << 8 | gray;
+            }
+        }
+    }
+
+    /**
+     * Creates the SIMD kernel that converts rows to grayscale.
+     */
+    @Override
+    protected RowKernel makeVectorKernel() {
+        return new VectorGrayScaleKernel();
     }
 }
@@ -0,0 +1,53 @@
+package livelessons.filters;
+
+import java.io.File;
+
+/**
+ * A Filter subclass that inverts the colors of a downloaded image,
+ * keeping its alpha.  Since each pixel only depends on the original
+ * pixel, it's a PointFilter.
+ */
+public class InvertFilter
+       extends PointFilter {
+    /**
+     * Constructs a default InvertFilter and creates the output
+     * directory for this filter.
+     */
+    public InvertFilter() {
+        // Create the path to the filter directory.
+        File externalFile = getFilePath();
+
+        // Create the filter directory.
+        externalFile.mkdirs();
+    }
+
+    /**
+     * Constructs an InvertFilter with the given name.  See
+     * GrayScaleFilter for explanation of filter naming.
+     */
+    public InvertFilter(String name) {
+        super(name);
+    }
+
+    /**
+     * Inverts the color channels of one {@code argb} pixel.
+     */
+    @Override
+    public int filterPixel(int argb) {
+        return argb ^ 0x00FFFFFF;
+    }
+
+    /**
+     * Inverts a row of pixels in a tight loop.
+     */
+    @Override
+    public void filterRow(int[] source,
+                          int sourceOffset,
+                          int[] filtered,
+                          int filteredOffset,
+                          int length) {
+        for (int i = 0; i < length; ++i)
+            filtered[filteredOffset + i] =
+                source[sourceOffset + i] ^ 0x00FFFFFF;
+    }
+}
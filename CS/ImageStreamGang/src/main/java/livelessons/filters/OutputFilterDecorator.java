@@ -1,22 +1,37 @@
 package livelessons.filters;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CompletableFuture;
 
 import livelessons.platspec.PlatSpec;
+import livelessons.utils.FilterResultCache;
 import livelessons.utils.Image;
+import livelessons.utils.PipelineMetrics;
+import livelessons.utils.RasterPool;
 import livelessons.utils.Options;
 
 /**
  * A Decorator whose inherited applyFilter() template method calls the
  * filter() method on the Filter object passed to its constructor and
  * whose decorate() hook method then writes the results of the
- * filtered image to an output file.  Plays the role of the "Concrete
+ * filtered image to an output file, either directly or via the
+ * AsyncImageWriter.  Plays the role of the "Concrete
  * Decorator" in the Decorator pattern and the role of the "Concrete
  * Class" in the Template Method pattern.
  */
 public class OutputFilterDecorator 
        extends FilterDecorator {
+    /**
+     * The format used to encode the stored images.
+     */
+    private final Options.OutputFormat mOutputFormat;
+
     /**
      * Constructor passes the @a filter parameter up to the superclass
      * constructor, which stores it in a data member for subsequent
@@ -24,35 +39,192 @@ public class OutputFilterDecorator
      * template method.
      */
     public OutputFilterDecorator(Filter filter) {
+    	this(filter, Options.instance().getOutputFormat());
+    }
+
+    /**
+     * Constructor passes the @a filter parameter up to the superclass
+     * constructor and stores images in the given @a outputFormat,
+     * e.g., so intermediate results can use a cheaper encoding than
+     * the final results.
+     */
+    public OutputFilterDecorator(Filter filter,
+                                 Options.OutputFormat outputFormat) {
     	super(filter);
+        mOutputFormat = outputFormat;
+    }
+
+    /**
+     * Returns the format used to encode the stored images.
+     */
+    public Options.OutputFormat getOutputFormat() {
+        return mOutputFormat;
+    }
+
+    /**
+     * Returns the options that affect the stored images, which are
+     * recorded in their fingerprints.
+     */
+    public String getOutputSettings() {
+        return Options.instance().getOutputSettings(mOutputFormat);
     }
 
     /**
      * This hook method is called with the @a image parameter after it
      * has been filtered with mFilter in the inherited applyFilter()
-     * method.  decorate() stores the filtered Image in a file.
+     * method.  decorate() stores the filtered Image in a file and
+     * then returns its raster to the RasterPool (if it came from
+     * there), so the pixels of the returned Image must not be used.
      */
     @Override
     protected Image decorate(Image image) {
+        AsyncImageWriter writer = AsyncImageWriter.instance();
+
+        // Hand the image off to the writer threads if they are
+        // enabled, which mark the image as failed (and count it) if
+        // it can't be written.
+        if (writer.enabled()) {
+            writer.submit(this, image);
+            return image;
+        }
+
+        return write(image);
+    }
+
+    /**
+     * Writes the @a image to a file in the directory of mFilter and
+     * records it in the FilterResultCache.
+     *
+     * @return The image, or null if it couldn't be written
+     */
+    Image write(Image image) {
         // Store the filtered image as its filename (which is derived
         // from its URL), within the appropriate filter directory to
         // organize the filtered results and write the image to the
         // file in the appropriate directory.
 
-        // Get a reference to the file in which the image will be stored
-        File imageFile = new File(getFilePath(),
-                                  image.getFileName());
-        
-        // Store the image using try-with-resources
-        try (FileOutputStream outputFile =
-             new FileOutputStream(imageFile)) {
-            // Write the image to the output file.
-            PlatSpec.writeImageFile(outputFile, image);
+        Path tempFile = null;
+        File imageFile;
+
+        try {
+            // Write the image to a temporary file in the same
+            // directory, so a partly written image is never visible
+            // under its final name.
+            tempFile = Files.createTempFile(getFilePath().toPath(),
+                                            image.getFileName(),
+                                            ".tmp");
+
+            PipelineMetrics metrics = PipelineMetrics.instance();
+
+            // Encode the image in memory, so encoding and writing can
+            // be measured separately.
+            long encodeStart = metrics.start();
+            ByteArrayOutputStream encodedImage = new ByteArrayOutputStream();
+            String formatName =
+                PlatSpec.writeImageFile(encodedImage,
+                                        image,
+                                        mOutputFormat,
+                                        Options.instance().getCompressionLevel());
+            metrics.record(PipelineMetrics.Stage.ENCODE, encodeStart);
+
+            // A null image can't be encoded, so treat it like a
+            // failed write rather than publishing an empty file.
+            if (formatName == null)
+                throw new IOException("unable to encode "
+                                      + image.getFileName());
+
+            // Store the image using try-with-resources
+            long writeStart = metrics.start();
+            try (OutputStream outputFile =
+                 Files.newOutputStream(tempFile)) {
+                // Write the image to the output file.
+                encodedImage.writeTo(outputFile);
+            }
+
+            // Get a reference to the file in which the image will be
+            // stored, whose name reflects the format that was written.
+            imageFile = new File(getFilePath(),
+                                 getOutputFileName(image, formatName));
+
+            // Atomically publish the image under its final name.
+            Files.move(tempFile,
+                       imageFile.toPath(),
+                       StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+
+            // Record the stored image in the cache index.
+            FilterResultCache.instance().publish(image.getSourceURL(),
+                                                 getName(),
+                                                 image.getContentHash(),
+                                                 imageFile.getName(),
+                                                 getVersion(),
+                                                 getOutputSettings());
+            metrics.record(PipelineMetrics.Stage.WRITE, writeStart);
+            metrics.addImageStored(encodedImage.size());
         } catch (Exception e) {
             // e.printStackTrace();
+            try {
+                if (tempFile != null)
+                    Files.deleteIfExists(tempFile);
+            } catch (Exception ex) {
+                // Swallow exceptions.
+            }
+
+            // Let a later run retry this image.
+            FilterResultCache.instance().release(image.getSourceURL(),
+                                                 getName());
             return null;
+        } finally {
+            // Return the raster of the image to the pool, since the
+            // pixels are no longer needed once they are stored.
+            RasterPool.instance().release(image);
         }
         
         return image;
     }
+
+    /**
+     * Returns the name of the file that stores the @a image encoded
+     * in @a formatName.  PNG output keeps the name derived from the
+     * source URL (as it always has), whereas other formats add their
+     * extension unless it's already the extension of the source.
+     */
+    private String getOutputFileName(Image image,
+                                     String formatName) {
+        return mOutputFormat == Options.OutputFormat.PNG
+            || formatName.equals(image.getFormatName())
+            ? image.getFileName()
+            : image.getFileName() + "." + formatName;
+    }
+
+    /**
+     * Stores an {@code image} that has already been filtered by
+     * mFilter elsewhere (e.g., by a FusedFilterPass) in a file.  A
+     * null {@code image} (e.g., one whose stored result is current)
+     * is skipped.
+     *
+     * @return The stored image, or null if it couldn't be stored
+     */
+    public Image store(Image image) {
+        return image == null
+            ? null
+            : decorate(image);
+    }
+
+    /**
+     * Stores an {@code image} that has already been filtered by
+     * mFilter in a file, using the AsyncImageWriter if it's enabled.
+     *
+     * @return A future that's completed with the stored image, or
+     *         with null if it couldn't be stored
+     */
+    public CompletableFuture<Image> storeAsync(Image image) {
+        if (image == null)
+            return CompletableFuture.completedFuture(null);
+
+        AsyncImageWriter writer = AsyncImageWriter.instance();
+        return writer.enabled()
+            ? writer.submit(this, image)
+            : CompletableFuture.completedFuture(write(image));
+    }
 }
@@ -0,0 +1,85 @@
+package livelessons.filters;
+
+import java.util.List;
+
+import livelessons.platspec.PlatSpec;
+import livelessons.utils.Image;
+
+/**
+ * An abstract Filter whose output pixel depends only on the input
+ * pixel at the same position, i.e., it's a "per-pixel-pure" filter.
+ * Declaring this property allows several point filters to be applied
+ * to an image in a single pass over its pixels (see
+ * FusedFilterPass), and a chain of point filters to be composed via
+ * andThen() into one filter that's applied in a single pass.  Plays
+ * the role of the "Abstract Class" in the Template Method pattern.
+ */
+public abstract class PointFilter
+       extends Filter {
+    /**
+     * Constructs the filter with the default name.
+     */
+    public PointFilter() {
+    }
+
+    /**
+     * Constructs the filter with a custom name.
+     */
+    public PointFilter(String filterName) {
+        super(filterName);
+    }
+
+    /**
+     * This hook method must be overridden by a subclass to map one
+     * non-premultiplied sRGB {@code argb} pixel to its filtered
+     * value.  It must not depend on any other state.
+     */
+    public abstract int filterPixel(int argb);
+
+    /**
+     * Apply filterPixel() to the first {@code length} pixels of
+     * {@code source} and store the results in {@code filtered}.
+     */
+    public void filterRow(int[] source,
+                          int[] filtered,
+                          int length) {
+        filterRow(source, 0, filtered, 0, length);
+    }
+
+    /**
+     * Apply filterPixel() to the {@code length} pixels of {@code
+     * source} starting at {@code sourceOffset} and store the results
+     * in {@code filtered} starting at {@code filteredOffset}, e.g.,
+     * to filter one row of a PackedImage.  Subclasses can override
+     * this hook method with a tighter loop, but {@code source} and
+     * {@code filtered} may be the same array with the same offset,
+     * so each pixel must be read before its result is written.
+     */
+    public void filterRow(int[] source,
+                          int sourceOffset,
+                          int[] filtered,
+                          int filteredOffset,
+                          int length) {
+        for (int i = 0; i < length; ++i)
+            filtered[filteredOffset + i] = filterPixel(source[sourceOffset + i]);
+    }
+
+    /**
+     * Returns a point filter that applies this filter and then the
+     * {@code after} filter to each pixel.  Each row of pixels is
+     * filtered by both filters while it's in the cache, so a chain
+     * of point filters costs a single pass over the image and no
+     * intermediate images are made.
+     */
+    public PointFilter andThen(PointFilter after) {
+        return new ComposedPointFilter(this, after);
+    }
+
+    /**
+     * Applies this point filter to every pixel of the {@code image}.
+     */
+    @Override
+    protected Image applyFilter(Image image) {
+        return PlatSpec.applyPointFilters(image, List.of(this)).get(0);
+    }
+}
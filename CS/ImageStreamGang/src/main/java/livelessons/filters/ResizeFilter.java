@@ -0,0 +1,80 @@
+package livelessons.filters;
+
+import java.io.File;
+
+import livelessons.platspec.PlatSpec;
+import livelessons.utils.Convolution;
+import livelessons.utils.Image;
+import livelessons.utils.PackedImage;
+
+/**
+ * A Filter subclass that resizes a downloaded image with the
+ * resampler of the Convolution engine, which averages all the source
+ * pixels that cover each target pixel when it shrinks an image.  By
+ * default images are shrunk to fit in Image.IMAGE_WIDTH by
+ * Image.IMAGE_HEIGHT pixels, keeping their aspect ratio.
+ */
+public class ResizeFilter
+       extends Filter {
+    /**
+     * The maximum width of the resized images.
+     */
+    private final int mMaxWidth;
+
+    /**
+     * The maximum height of the resized images.
+     */
+    private final int mMaxHeight;
+
+    /**
+     * Constructs a default ResizeFilter and creates the output
+     * directory for this filter.
+     */
+    public ResizeFilter() {
+        mMaxWidth = Image.IMAGE_WIDTH;
+        mMaxHeight = Image.IMAGE_HEIGHT;
+
+        // Create the path to the filter directory.
+        File externalFile = getFilePath();
+
+        // Create the filter directory.
+        externalFile.mkdirs();
+    }
+
+    /**
+     * Constructs a ResizeFilter with the given name that resizes
+     * images to fit in {@code maxWidth} by {@code maxHeight} pixels.
+     * See GrayScaleFilter for explanation of filter naming.
+     */
+    public ResizeFilter(String name, int maxWidth, int maxHeight) {
+        super(name);
+        mMaxWidth = maxWidth;
+        mMaxHeight = maxHeight;
+    }
+
+    /**
+     * Resizes the {@code image} to fit in the maximum size (or
+     * leaves its size unchanged if it already fits) into a new image
+     * whose raster is borrowed from the RasterPool.
+     */
+    @Override
+    protected Image applyFilter(Image image) {
+        PackedImage source = image.getPackedImage();
+        double scale =
+            Math.min(1.0,
+                     Math.min((double) mMaxWidth / source.getWidth(),
+                              (double) mMaxHeight / source.getHeight()));
+
+        PackedImage resized =
+            PlatSpec.borrowPackedImage
+            (Math.max(1, (int) Math.round(source.getWidth() * scale)),
+             Math.max(1, (int) Math.round(source.getHeight() * scale)),
+             source.hasAlpha());
+
+        Convolution.resample(source, resized);
+
+        Image result = new Image(image.getSourceURL(), resized);
+        result.setRecyclable(true);
+        return result;
+    }
+}
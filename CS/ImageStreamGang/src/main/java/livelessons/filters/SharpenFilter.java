@@ -0,0 +1,90 @@
+package livelessons.filters;
+
+import java.io.File;
+import java.util.List;
+
+import livelessons.utils.Convolution;
+
+/**
+ * A Filter subclass that sharpens a downloaded image with an
+ * "unsharp mask", i.e., it adds the difference between each pixel
+ * and a blurred version of it back to the pixel, which amplifies
+ * edges and fine detail.
+ */
+public class SharpenFilter
+       extends ConvolutionFilter {
+    /**
+     * The default radius of the blur kernel.
+     */
+    private static final int sDEFAULT_RADIUS = 2;
+
+    /**
+     * The default fraction of the difference that's added back.
+     */
+    private static final float sDEFAULT_AMOUNT = 1.0f;
+
+    /**
+     * The fraction of the difference that's added back.
+     */
+    private final float mAmount;
+
+    /**
+     * Constructs a default SharpenFilter and creates the output
+     * directory for this filter.
+     */
+    public SharpenFilter() {
+        super(List.of(BlurFilter.gaussian(sDEFAULT_RADIUS)));
+        mAmount = sDEFAULT_AMOUNT;
+
+        // Create the path to the filter directory.
+        File externalFile = getFilePath();
+
+        // Create the filter directory.
+        externalFile.mkdirs();
+    }
+
+    /**
+     * Constructs a SharpenFilter with the given name, blur kernel
+     * {@code radius}, and {@code amount}.  See GrayScaleFilter for
+     * explanation of filter naming.
+     */
+    public SharpenFilter(String name, int radius, float amount) {
+        super(name, List.of(BlurFilter.gaussian(radius)));
+        mAmount = amount;
+    }
+
+    /**
+     * Adds the difference between the source and the blurred colors
+     * back to the source.  The alpha channel isn't sharpened.
+     */
+    @Override
+    public void combineRow(float[][] source,
+                           int sourceOffset,
+                           float[][][] convolved,
+                           int convolvedOffset,
+                           int channels,
+                           int[] target,
+                           int targetOffset,
+                           int length) {
+        float[][] blurred = convolved[0];
+
+        for (int c = Convolution.RED; c <= Convolution.BLUE; ++c)
+            for (int i = 0; i < length; ++i) {
+                float value = source[c][sourceOffset + i];
+                blurred[c][convolvedOffset + i] =
+                    value + mAmount * (value - blurred[c][convolvedOffset + i]);
+            }
+
+        if (channels == 4)
+            System.arraycopy(source[Convolution.ALPHA], sourceOffset,
+                             blurred[Convolution.ALPHA], convolvedOffset,
+                             length);
+
+        Convolution.packRow(blurred,
+                            convolvedOffset,
+                            channels,
+                            target,
+                            targetOffset,
+                            length);
+    }
+}
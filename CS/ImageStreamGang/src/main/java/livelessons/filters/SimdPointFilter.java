@@ -0,0 +1,129 @@
+package livelessons.filters;
+
+import livelessons.utils.Options;
+
+/**
+ * A PointFilter that can filter rows of packed pixels with a SIMD
+ * kernel written against the Vector API (jdk.incubator.vector).
+ * Since that module is incubating, it's only resolved if the JVM is
+ * started with "--add-modules jdk.incubator.vector", so a subclass
+ * only creates its kernel once Options has checked that the module
+ * is present and SIMD kernels are enabled.  Otherwise, and for the
+ * pixels at the end of each row that don't fill a whole vector, the
+ * scalar filterRowScalar() hook method is used instead.  Plays the
+ * role of the "Abstract Class" in the Template Method pattern.
+ */
+public abstract class SimdPointFilter
+       extends PointFilter {
+    /**
+     * A kernel that filters a prefix of a row of packed pixels.
+     */
+    @FunctionalInterface
+    public interface RowKernel {
+        /**
+         * Filter a prefix of the {@code length} pixels of {@code
+         * source} starting at {@code sourceOffset} and store the
+         * results in {@code filtered} starting at {@code
+         * filteredOffset}.
+         *
+         * @return The number of pixels that were filtered
+         */
+        int filterRow(int[] source,
+                      int sourceOffset,
+                      int[] filtered,
+                      int filteredOffset,
+                      int length);
+    }
+
+    /**
+     * The SIMD kernel, or null if it's disabled or unavailable.
+     * It's created lazily since Options may be parsed after this
+     * filter is constructed.
+     */
+    private volatile RowKernel mKernel;
+
+    /**
+     * Keeps track of whether mKernel has been initialized.
+     */
+    private volatile boolean mKernelInitialized;
+
+    /**
+     * Constructs the filter with the default name.
+     */
+    public SimdPointFilter() {
+    }
+
+    /**
+     * Constructs the filter with a custom name.
+     */
+    public SimdPointFilter(String filterName) {
+        super(filterName);
+    }
+
+    /**
+     * This factory method must be overridden by a subclass to create
+     * its SIMD kernel.  It's only called if the Vector API is
+     * available, so it's the only place a subclass may refer to a
+     * class that uses the Vector API.
+     */
+    protected abstract RowKernel makeVectorKernel();
+
+    /**
+     * This hook method can be overridden by a subclass with a tighter
+     * scalar loop.  By default it applies filterPixel() to each pixel.
+     */
+    protected void filterRowScalar(int[] source,
+                                   int sourceOffset,
+                                   int[] filtered,
+                                   int filteredOffset,
+                                   int length) {
+        super.filterRow(source,
+                        sourceOffset,
+                        filtered,
+                        filteredOffset,
+                        length);
+    }
+
+    /**
+     * Filter the row with the SIMD kernel if there is one and filter
+     * the remaining pixels with filterRowScalar().
+     */
+    @Override
+    public final void filterRow(int[] source,
+                                int sourceOffset,
+                                int[] filtered,
+                                int filteredOffset,
+                                int length) {
+        RowKernel kernel = getKernel();
+        int done = kernel == null
+            ? 0
+            : kernel.filterRow(source,
+                               sourceOffset,
+                               filtered,
+                               filteredOffset,
+                               length);
+
+        if (done < length)
+            filterRowScalar(source,
+                            sourceOffset + done,
+                            filtered,
+                            filteredOffset + done,
+                            length - done);
+    }
+
+    /**
+     * @return The SIMD kernel, or null if it's disabled or unavailable.
+     */
+    private RowKernel getKernel() {
+        if (!mKernelInitialized) {
+            synchronized (this) {
+                if (!mKernelInitialized) {
+                    if (Options.instance().simdEnabled())
+                        mKernel = makeVectorKernel();
+                    mKernelInitialized = true;
+                }
+            }
+        }
+        return mKernel;
+    }
+}
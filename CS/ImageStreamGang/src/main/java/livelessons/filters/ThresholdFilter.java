@@ -0,0 +1,78 @@
+package livelessons.filters;
+
+import livelessons.platspec.PlatSpec;
+
+import java.io.File;
+
+/**
+ * A Filter subclass that turns each pixel of a downloaded image
+ * white if its luminance is at least a threshold and black
+ * otherwise, keeping its alpha.  Since each pixel only depends on
+ * the original pixel, it's a PointFilter.
+ */
+public class ThresholdFilter
+       extends PointFilter {
+    /**
+     * The default luminance threshold.
+     */
+    private static final int sDEFAULT_THRESHOLD = 128;
+
+    /**
+     * Pixels whose luminance is at least this value become white.
+     */
+    private final int mThreshold;
+
+    /**
+     * Constructs a default ThresholdFilter and creates the output
+     * directory for this filter.
+     */
+    public ThresholdFilter() {
+        mThreshold = sDEFAULT_THRESHOLD;
+
+        // Create the path to the filter directory.
+        File externalFile = getFilePath();
+
+        // Create the filter directory.
+        externalFile.mkdirs();
+    }
+
+    /**
+     * Constructs a ThresholdFilter with the given name and luminance
+     * {@code threshold}.  See GrayScaleFilter for explanation of
+     * filter naming.
+     */
+    public ThresholdFilter(String name, int threshold) {
+        super(name);
+        mThreshold = threshold;
+    }
+
+    /**
+     * Converts one {@code argb} pixel to black or white.
+     */
+    @Override
+    public int filterPixel(int argb) {
+        int gray = PlatSpec.luminance((argb >> 16) & 0xFF,
+                                      (argb >> 8) & 0xFF,
+                                      argb & 0xFF);
+        return (argb & 0xFF000000) | (gray >= mThreshold ? 0xFFFFFF : 0);
+    }
+
+    /**
+     * Converts a row of pixels to black or white in a tight loop.
+     */
+    @Override
+    public void filterRow(int[] source,
+                          int sourceOffset,
+                          int[] filtered,
+                          int filteredOffset,
+                          int length) {
+        for (int i = 0; i < length; ++i) {
+            int argb = source[sourceOffset + i];
+            int gray = PlatSpec.luminance((argb >> 16) & 0xFF,
+                                          (argb >> 8) & 0xFF,
+                                          argb & 0xFF);
+            filtered[filteredOffset + i] =
+                (argb & 0xFF000000) | (gray >= mThreshold ? 0xFFFFFF : 0);
+        }
+    }
+}
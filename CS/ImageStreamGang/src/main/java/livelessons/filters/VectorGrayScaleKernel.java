@@ -0,0 +1,84 @@
+package livelessons.filters;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A SIMD kernel that converts rows of packed ARGB pixels to
+ * grayscale using the Vector API.  It computes the same values as
+ * PlatSpec.luminance(), but replaces each division by 1000 with a
+ * multiplication and a shift, since (c * w / 1000) == (c * k) >>> 16
+ * for every c in [0, 255] with the (w, k) pairs (299, 19594), (587,
+ * 38468), and (114, 7471).  This class must only be loaded if the
+ * jdk.incubator.vector module is available (see SimdPointFilter).
+ */
+class VectorGrayScaleKernel
+       implements SimdPointFilter.RowKernel {
+    /**
+     * The widest vector shape that's supported by the CPU.
+     */
+    private static final VectorSpecies<Integer> sSPECIES =
+        IntVector.SPECIES_PREFERRED;
+
+    /**
+     * The multipliers for the red, green, and blue channels and the
+     * shift that replaces the division by 1000.
+     */
+    private static final int sRED_WEIGHT = 19594;
+    private static final int sGREEN_WEIGHT = 38468;
+    private static final int sBLUE_WEIGHT = 7471;
+    private static final int sSHIFT = 16;
+
+    /**
+     * Convert the longest prefix of the row that fills whole vectors
+     * to grayscale.  Transparent pixels are left unchanged.
+     */
+    @Override
+    public int filterRow(int[] source,
+                         int sourceOffset,
+                         int[] filtered,
+                         int filteredOffset,
+                         int length) {
+        int upperBound = sSPECIES.loopBound(length);
+
+        for (int i = 0; i < upperBound; i += sSPECIES.length()) {
+            IntVector argb =
+                IntVector.fromArray(sSPECIES, source, sourceOffset + i);
+
+            IntVector red = argb
+                .lanewise(VectorOperators.LSHR, 16)
+                .and(0xFF)
+                .mul(sRED_WEIGHT)
+                .lanewise(VectorOperators.LSHR, sSHIFT);
+            IntVector green = argb
+                .lanewise(VectorOperators.LSHR, 8)
+                .and(0xFF)
+                .mul(sGREEN_WEIGHT)
+                .lanewise(VectorOperators.LSHR, sSHIFT);
+            IntVector blue = argb
+                .and(0xFF)
+                .mul(sBLUE_WEIGHT)
+                .lanewise(VectorOperators.LSHR, sSHIFT);
+
+            // Replicate the gray value into all three color channels.
+            IntVector gray = red
+                .add(green)
+                .add(blue)
+                .mul(0x010101)
+                .or(0xFF000000);
+
+            // Keep the pixels that are transparent in the original.
+            VectorMask<Integer> transparent = argb
+                .lanewise(VectorOperators.LSHR, 24)
+                .eq(0);
+
+            gray
+                .blend(argb, transparent)
+                .intoArray(filtered, filteredOffset + i);
+        }
+
+        return upperBound;
+    }
+}
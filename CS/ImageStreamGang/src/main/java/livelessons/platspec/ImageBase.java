@@ -1,9 +1,18 @@
 package livelessons.platspec;
 
+import livelessons.utils.PackedImage;
+
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
 
 /**
  * Stores platform-specific meta-data about an Image and also provides
@@ -16,6 +25,18 @@ public class ImageBase {
      */
     public BufferedImage mImage;
 
+    /**
+     * The pixels of mImage as a PackedImage, or null if they haven't
+     * been requested yet.
+     */
+    private PackedImage mPackedImage;
+
+    /**
+     * The image whose Bitmap this Image shares, which also provides
+     * its PackedImage, or null if it doesn't share one.
+     */
+    private ImageBase mSharedImage;
+
     /**
      * Returns the @a Bitmap stored by this Image.
      */
@@ -29,7 +50,7 @@ public class ImageBase {
      */
     public void setImage(byte[] imageData) {
         try {
-            mImage = ImageIO.read(new ByteArrayInputStream(imageData));
+            mImage = decode(new ByteArrayInputStream(imageData));
         } catch (IOException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
@@ -37,9 +58,164 @@ public class ImageBase {
     }
 
     /**
-     * Set the Image from the @a image object.
+     * Hook method that returns the smallest size images should be
+     * decoded at, or null to decode them at full resolution (which
+     * is the default).
+     */
+    protected Dimension getDecodeSize() {
+        return null;
+    }
+
+    /**
+     * Decodes the image in the @a stream.  If getDecodeSize() returns
+     * a size, only every nth pixel in each direction is decoded,
+     * where n is as large as possible without making the image
+     * smaller than that size, which saves most of the CPU time and
+     * memory of decoding large images.
+     *
+     * @return The decoded image, or null if its format isn't supported
+     */
+    private BufferedImage decode(InputStream stream) throws IOException {
+        Dimension decodeSize = getDecodeSize();
+        if (decodeSize == null)
+            return ImageIO.read(stream);
+
+        try (ImageInputStream imageStream =
+             ImageIO.createImageInputStream(stream)) {
+            Iterator<ImageReader> readers =
+                ImageIO.getImageReaders(imageStream);
+            if (!readers.hasNext())
+                return null;
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(imageStream, true, true);
+
+                // Subsample by the same factor in both directions to
+                // keep the aspect ratio.
+                int factor =
+                    Math.max(1,
+                             Math.min(reader.getWidth(0) / decodeSize.width,
+                                      reader.getHeight(0) / decodeSize.height));
+
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(factor, factor, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Set the Image from the @a image object, which is either a
+     * BufferedImage or a PackedImage.  A PackedImage is wrapped in a
+     * BufferedImage that shares its pixels.
+     */
+    public synchronized void setImage(Object image) {
+        mSharedImage = null;
+        if (image instanceof PackedImage packedImage) {
+            mPackedImage = packedImage;
+            mImage = PlatSpec.toBufferedImage(packedImage);
+        } else {
+            mPackedImage = null;
+            mImage = (BufferedImage) image;
+        }
+    }
+
+    /**
+     * Share the @a Bitmap of the @a other image, along with its
+     * PackedImage, so the pixels are only converted once for all the
+     * images that share them.
      */
-    public void setImage(Object image) {
-        mImage = (BufferedImage) image;
+    public synchronized void shareImage(ImageBase other) {
+        mImage = other.getImage();
+        mPackedImage = null;
+        mSharedImage = other;
+    }
+
+    /**
+     * Returns the pixels of the @a Bitmap stored by this Image as a
+     * PackedImage, which is only converted the first time it's
+     * requested by this Image or the image it shares its Bitmap with.
+     */
+    public synchronized PackedImage getPackedImage() {
+        if (mPackedImage == null && mImage != null)
+            mPackedImage = mSharedImage != null
+                ? mSharedImage.getPackedImage()
+                : PlatSpec.toPackedImage(mImage);
+        return mPackedImage;
+    }
+
+    /**
+     * Decodes the remaining bytes of a ByteBuffer into an @a Image
+     * without copying them first.
+     */
+    public void setImage(ByteBuffer imageData) {
+        try {
+            mImage = decode(imageData.hasArray()
+                            ? new ByteArrayInputStream
+                              (imageData.array(),
+                               imageData.arrayOffset() + imageData.position(),
+                               imageData.remaining())
+                            : new ByteBufferInputStream(imageData));
+        } catch (IOException e) {
+            // Leave the image null, just like an image whose format
+            // isn't supported.
+            System.out.println("unable to decode image: " + e.getMessage());
+        }
+    }
+
+    /**
+     * An InputStream that reads the remaining bytes of a (e.g.,
+     * direct or memory-mapped) ByteBuffer without changing the
+     * position of the original buffer.
+     */
+    private static class ByteBufferInputStream
+            extends InputStream {
+        /**
+         * The buffer being read.
+         */
+        private final ByteBuffer mBuffer;
+
+        /**
+         * Constructor initializes the field.
+         */
+        ByteBufferInputStream(ByteBuffer buffer) {
+            mBuffer = buffer.duplicate();
+        }
+
+        /**
+         * Reads the next byte or returns -1 at the end of the buffer.
+         */
+        @Override
+        public int read() {
+            return mBuffer.hasRemaining()
+                ? mBuffer.get() & 0xFF
+                : -1;
+        }
+
+        /**
+         * Reads up to {@code length} bytes into {@code bytes}.
+         */
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0)
+                return 0;
+            if (!mBuffer.hasRemaining())
+                return -1;
+
+            int count = Math.min(length, mBuffer.remaining());
+            mBuffer.get(bytes, offset, count);
+            return count;
+        }
+
+        /**
+         * Returns the number of bytes left in the buffer.
+         */
+        @Override
+        public int available() {
+            return mBuffer.remaining();
+        }
     }
 }
@@ -2,16 +2,36 @@ package livelessons.platspec;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 import java.io.*;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.List;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
+import livelessons.filters.PointFilter;
 import livelessons.utils.Image;
+import livelessons.utils.Options;
+import livelessons.utils.PackedImage;
+import livelessons.utils.ParallelRows;
+import livelessons.utils.RasterPool;
 
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
 
 import static java.util.stream.Collectors.toList;
 
@@ -27,6 +47,11 @@ public final class PlatSpec {
      */
     private static final String TAG = PlatSpec.class.getName();
 
+    /**
+     * The format name (and file extension) of raw output images.
+     */
+    private static final String sPAM_FORMAT_NAME = "pam";
+
     /**
      * The path to the image directory.
      */
@@ -47,32 +72,120 @@ public final class PlatSpec {
     }
 
     /**
-     * Creates an input stream for the passed URL. This method will
-     * support both normal URLs and any URL located in the application
-     * resources.
+     * Write the @a image to the @a outputStream using the @a
+     * outputFormat.  PNG output is compressed at the deflate @a
+     * compressionLevel (0-9), or at the default level if it's
+     * negative.
      *
-     * @param url     Any URL including a resource URL.
-     * @return An input stream.
-     * @throws IOException
+     * @return The name of the format that was actually written,
+     *         e.g., "png" if the source format of the image can't be
+     *         written, or null if the image is null
      */
-    public static InputStream getInputStream(URL url)
-            throws IOException {
-       // Normal URL.
-       return url.openStream();
+    public static String writeImageFile(OutputStream outputStream,
+                                        Image image,
+                                        Options.OutputFormat outputFormat,
+                                        int compressionLevel)
+        throws IOException {
+        BufferedImage bufferedImage = image.getImage();
+        if (bufferedImage == null) {
+            System.out.println("null image");
+            return null;
+        }
+
+        switch (outputFormat) {
+        case RAW:
+            writePam(outputStream, bufferedImage);
+            return sPAM_FORMAT_NAME;
+        case SOURCE:
+            // ImageIO.write() returns false without writing anything
+            // if it can't write the image in this format (e.g., a
+            // JPEG with an alpha channel), so fall back to PNG.
+            String formatName = image.getFormatName();
+            if (formatName.equalsIgnoreCase("png")
+                || !ImageIO.write(bufferedImage,
+                                  formatName,
+                                  outputStream)) {
+                writePng(outputStream, bufferedImage, compressionLevel);
+                return "png";
+            }
+            return formatName;
+        default:
+            writePng(outputStream, bufferedImage, compressionLevel);
+            return "png";
+        }
     }
 
     /**
-     * Write the @a image to the @a outputStream.
+     * Write the @a image to the @a outputStream as a PNG compressed
+     * at the deflate @a compressionLevel.
      */
-    public static void writeImageFile(FileOutputStream outputStream,
-                                      Image image) throws IOException {
-        BufferedImage bufferedImage = image.getImage();
-        if (bufferedImage == null)
-            System.out.println("null image");
-        else 
-            ImageIO.write(bufferedImage,
-                          "png",
-                          outputStream);
+    private static void writePng(OutputStream outputStream,
+                                 BufferedImage image,
+                                 int compressionLevel) throws IOException {
+        // Use the default level of the PNG writer.
+        if (compressionLevel < 0) {
+            ImageIO.write(image, "png", outputStream);
+            return;
+        }
+
+        ImageWriter writer =
+            ImageIO.getImageWritersByFormatName("png").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+
+        // The PNG writer uses a deflate level of (int) (9 * (1 -
+        // quality)), so aim for the middle of the level to avoid
+        // rounding down.
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality
+            (Math.max(0f, 1f - (Math.min(compressionLevel, 9) + 0.5f) / 9f));
+
+        try (ImageOutputStream imageOutputStream =
+             ImageIO.createImageOutputStream(outputStream)) {
+            writer.setOutput(imageOutputStream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * Write the @a image to the @a outputStream as an uncompressed
+     * PAM (i.e., the arbitrary-depth variant of PPM), which stores
+     * RGB or RGBA samples one byte each after a short text header.
+     */
+    private static void writePam(OutputStream outputStream,
+                                 BufferedImage image) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        boolean hasAlpha = image.getColorModel().hasAlpha();
+        int depth = hasAlpha ? 4 : 3;
+
+        outputStream.write(("P7\n"
+                            + "WIDTH " + width + "\n"
+                            + "HEIGHT " + height + "\n"
+                            + "DEPTH " + depth + "\n"
+                            + "MAXVAL 255\n"
+                            + "TUPLTYPE " + (hasAlpha ? "RGB_ALPHA" : "RGB") + "\n"
+                            + "ENDHDR\n").getBytes(StandardCharsets.US_ASCII));
+
+        int[] rgbRow = new int[width];
+        byte[] sampleRow = new byte[width * depth];
+
+        // Convert each row to samples and write it in one call.
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, rgbRow, 0, width);
+
+            for (int x = 0, i = 0; x < width; x++) {
+                int argb = rgbRow[x];
+                sampleRow[i++] = (byte) (argb >> 16);
+                sampleRow[i++] = (byte) (argb >> 8);
+                sampleRow[i++] = (byte) argb;
+                if (hasAlpha)
+                    sampleRow[i++] = (byte) (argb >>> 24);
+            }
+
+            outputStream.write(sampleRow);
+        }
     }
 
     /**
@@ -86,7 +199,7 @@ public final class PlatSpec {
         BufferedImage grayScaleImage =
             new BufferedImage
             (originalImage.getColorModel(),
-             originalImage.copyData(null),
+             RasterPool.instance().borrowCopy(originalImage),
              originalImage.getColorModel().isAlphaPremultiplied(),
              null);
     
@@ -97,31 +210,387 @@ public final class PlatSpec {
     
         // A common pixel-by-pixel grayscale conversion algorithm
         // using values obtained from en.wikipedia.org/wiki/Grayscale.
-        for (int i = 0; i < height; ++i) {
-            for (int j = 0; j < width; ++j) {
-            	
-            	// Check if the pixel is transparent in the original.
-                if (hasTransparent 
-                    && (grayScaleImage.getRGB(j,
-                                              i) >> 24) == 0x00) 
+        ParallelRows.forEachRowBand
+            (width,
+             height,
+             (fromRow, toRow) -> {
+                for (int i = fromRow; i < toRow; ++i) {
+                    for (int j = 0; j < width; ++j) {
+
+                        // Check if the pixel is transparent in the original.
+                        if (hasTransparent
+                            && (grayScaleImage.getRGB(j,
+                                                      i) >> 24) == 0x00)
+                            continue;
+
+                        // Convert the pixel to grayscale.
+                        Color c = new Color(grayScaleImage.getRGB(j,
+                                                                  i));
+                        int grayConversion =
+                            (int) (c.getRed() * 0.299)
+                            + (int) (c.getGreen() * 0.587)
+                            + (int) (c.getBlue() * 0.114);
+                        Color grayScale = new Color(grayConversion,
+                                                    grayConversion,
+                                                    grayConversion);
+                        grayScaleImage.setRGB(j, i, grayScale.getRGB());
+                    }
+                }
+            });
+
+        return recyclable(new Image(image.getSourceURL(),
+                                    grayScaleImage));
+    }
+
+    /**
+     * Uses the same grayscale conversion as applyFilter(), but works
+     * directly on the array that backs the raster of the image, so no
+     * per-pixel virtual calls or Color objects are needed.  It
+     * handles the TYPE_INT_RGB, TYPE_INT_ARGB, TYPE_3BYTE_BGR, and
+     * TYPE_4BYTE_ABGR layouts and falls back to applyFilter() for all
+     * other layouts.  The output is bit-identical to applyFilter()
+     * since (int) (c * 0.299) == c * 299 / 1000 (and likewise for
+     * the other weights) for every c in [0, 255].
+     */
+    public static Image applyFilterRaster(Image image) {
+        BufferedImage originalImage = image.getImage();
+        int type = originalImage.getType();
+
+        if (type != BufferedImage.TYPE_INT_RGB
+            && type != BufferedImage.TYPE_INT_ARGB
+            && type != BufferedImage.TYPE_3BYTE_BGR
+            && type != BufferedImage.TYPE_4BYTE_ABGR)
+            return applyFilter(image);
+
+        WritableRaster raster =
+            RasterPool.instance().borrowCopy(originalImage);
+        BufferedImage grayScaleImage =
+            new BufferedImage
+            (originalImage.getColorModel(),
+             raster,
+             originalImage.getColorModel().isAlphaPremultiplied(),
+             null);
+
+        boolean packedInts = type == BufferedImage.TYPE_INT_RGB
+            || type == BufferedImage.TYPE_INT_ARGB;
+        boolean hasAlpha = type == BufferedImage.TYPE_INT_ARGB
+            || type == BufferedImage.TYPE_4BYTE_ABGR;
+
+        // Convert the rows to grayscale, in parallel bands for large
+        // images if that's enabled.
+        ParallelRows.forEachRowBand
+            (raster.getWidth(),
+             raster.getHeight(),
+             (fromRow, toRow) -> {
+                if (packedInts)
+                    grayScaleInts(raster, hasAlpha, fromRow, toRow);
+                else
+                    grayScaleBytes(raster, hasAlpha, fromRow, toRow);
+            });
+
+        return recyclable(new Image(image.getSourceURL(),
+                                    grayScaleImage));
+    }
+
+    /**
+     * Convert rows [{@code fromRow}, {@code toRow}) of a raster whose
+     * pixels are packed into ints to grayscale.
+     */
+    private static void grayScaleInts(WritableRaster raster,
+                                      boolean hasAlpha,
+                                      int fromRow,
+                                      int toRow) {
+        SinglePixelPackedSampleModel sampleModel =
+            (SinglePixelPackedSampleModel) raster.getSampleModel();
+        DataBufferInt dataBuffer = (DataBufferInt) raster.getDataBuffer();
+        int[] pixels = dataBuffer.getData();
+        int stride = sampleModel.getScanlineStride();
+        int width = raster.getWidth();
+        // setRGB() discards the alpha channel of TYPE_INT_RGB pixels.
+        int opaque = hasAlpha ? 0xFF000000 : 0;
+
+        for (int i = fromRow; i < toRow; ++i) {
+            int row = dataBuffer.getOffset() + i * stride;
+            for (int j = row; j < row + width; ++j) {
+                int pixel = pixels[j];
+
+                // Skip pixels that are transparent in the original.
+                if (hasAlpha && (pixel >>> 24) == 0)
                     continue;
-                
-                // Convert the pixel to grayscale.
-                Color c = new Color(grayScaleImage.getRGB(j,
-                                                          i));
-                int grayConversion =
-                    (int) (c.getRed() * 0.299)
-                    + (int) (c.getGreen() * 0.587)
-                    + (int) (c.getBlue() * 0.114);
-                Color grayScale = new Color(grayConversion,
-                                            grayConversion,
-                                            grayConversion);
-                grayScaleImage.setRGB(j, i, grayScale.getRGB());
+
+                int gray = luminance((pixel >> 16) & 0xFF,
+                                     (pixel >> 8) & 0xFF,
+                                     pixel & 0xFF);
+                pixels[j] = opaque | gray << 16 | gray << 8 | gray;
             }
         }
-   	
-        return new Image(image.getSourceURL(),
-                         grayScaleImage);
+    }
+
+    /**
+     * Convert rows [{@code fromRow}, {@code toRow}) of a raster whose
+     * pixels are interleaved bytes to grayscale.
+     */
+    private static void grayScaleBytes(WritableRaster raster,
+                                       boolean hasAlpha,
+                                       int fromRow,
+                                       int toRow) {
+        ComponentSampleModel sampleModel =
+            (ComponentSampleModel) raster.getSampleModel();
+        DataBufferByte dataBuffer = (DataBufferByte) raster.getDataBuffer();
+        byte[] samples = dataBuffer.getData();
+        int[] bandOffsets = sampleModel.getBandOffsets();
+        int pixelStride = sampleModel.getPixelStride();
+        int stride = sampleModel.getScanlineStride();
+        int width = raster.getWidth();
+
+        for (int i = fromRow; i < toRow; ++i) {
+            int row = dataBuffer.getOffset() + i * stride;
+            for (int j = row;
+                 j < row + width * pixelStride;
+                 j += pixelStride) {
+                // Skip pixels that are transparent in the original.
+                if (hasAlpha && samples[j + bandOffsets[3]] == 0)
+                    continue;
+
+                byte gray = (byte) luminance
+                    (samples[j + bandOffsets[0]] & 0xFF,
+                     samples[j + bandOffsets[1]] & 0xFF,
+                     samples[j + bandOffsets[2]] & 0xFF);
+                samples[j + bandOffsets[0]] = gray;
+                samples[j + bandOffsets[1]] = gray;
+                samples[j + bandOffsets[2]] = gray;
+                if (hasAlpha)
+                    samples[j + bandOffsets[3]] = (byte) 0xFF;
+            }
+        }
+    }
+
+    /**
+     * Mark an {@code image} whose raster was borrowed from the
+     * RasterPool so it's returned after the image has been stored.
+     */
+    private static Image recyclable(Image image) {
+        image.setRecyclable(true);
+        return image;
+    }
+
+    /**
+     * Compute the grayscale value of a pixel using integer
+     * arithmetic, which yields the same values as the floating-point
+     * weights used by applyFilter().
+     */
+    public static int luminance(int red, int green, int blue) {
+        return red * 299 / 1000
+            + green * 587 / 1000
+            + blue * 114 / 1000;
+    }
+
+    /**
+     * Applies all the point {@code filters} to the {@code image} in
+     * a single pass, i.e., each row of source pixels is read once and
+     * the filtered rows for every filter are written to their own
+     * output image.  Output rasters aren't initialized with a copy of
+     * the source raster, except for indexed images where unchanged
+     * pixels must keep their original palette index.
+     *
+     * @return A List containing the filtered image for each filter,
+     *         in the same order as {@code filters}
+     */
+    public static List<Image> applyPointFilters(Image image,
+                                                List<? extends PointFilter> filters) {
+        if (Options.instance().getFilterImplementation()
+            == Options.FilterImplementation.PACKED)
+            return applyPointFiltersPacked(image, filters);
+
+        BufferedImage originalImage = image.getImage();
+        ColorModel colorModel = originalImage.getColorModel();
+        boolean indexed = colorModel instanceof IndexColorModel;
+        int width = originalImage.getWidth();
+        int height = originalImage.getHeight();
+
+        BufferedImage[] filteredImages = new BufferedImage[filters.size()];
+        for (int k = 0; k < filteredImages.length; ++k)
+            filteredImages[k] =
+                new BufferedImage
+                (colorModel,
+                 indexed
+                 ? RasterPool.instance().borrowCopy(originalImage)
+                 : RasterPool.instance().borrow(originalImage),
+                 colorModel.isAlphaPremultiplied(),
+                 null);
+
+        ParallelRows.forEachRowBand
+            (width,
+             height,
+             (fromRow, toRow) -> {
+                int[] source = new int[width];
+                int[] filtered = new int[width];
+
+                for (int i = fromRow; i < toRow; ++i) {
+                    // Read each source row just once.
+                    originalImage.getRGB(0, i, width, 1, source, 0, width);
+
+                    for (int k = 0; k < filteredImages.length; ++k) {
+                        filters.get(k).filterRow(source, filtered, width);
+
+                        if (!indexed)
+                            filteredImages[k].setRGB(0, i, width, 1,
+                                                     filtered, 0, width);
+                        else
+                            // Only update pixels the filter changed.
+                            for (int j = 0; j < width; ++j)
+                                if (filtered[j] != source[j])
+                                    filteredImages[k].setRGB(j, i, filtered[j]);
+                    }
+                }
+            });
+
+        return Arrays
+            // Convert the array of filtered images into a stream.
+            .stream(filteredImages)
+
+            // Wrap each filtered image in an Image.
+            .map(filteredImage -> recyclable(new Image(image.getSourceURL(),
+                                                       filteredImage)))
+
+            // Collect the images into a list.
+            .toList();
+    }
+
+    /**
+     * Applies all the point {@code filters} to the PackedImage of the
+     * {@code image} in a single pass, where each filter reads a
+     * source row and writes a filtered row directly in the int
+     * arrays.  The filtered images are TYPE_INT_ARGB (or TYPE_INT_RGB
+     * if the source has no alpha) and share their pixels with the
+     * rasters they're stored from, which are borrowed from the
+     * RasterPool.
+     *
+     * @return A List containing the filtered image for each filter,
+     *         in the same order as {@code filters}
+     */
+    private static List<Image> applyPointFiltersPacked(Image image,
+                                                       List<? extends PointFilter> filters) {
+        PackedImage source = image.getPackedImage();
+        int[] sourcePixels = source.getPixels();
+        int width = source.getWidth();
+        int height = source.getHeight();
+
+        PackedImage[] filteredImages = new PackedImage[filters.size()];
+        for (int k = 0; k < filteredImages.length; ++k)
+            filteredImages[k] =
+                borrowPackedImage(width, height, source.hasAlpha());
+
+        ParallelRows.forEachRowBand
+            (width,
+             height,
+             (fromRow, toRow) -> {
+                for (int i = fromRow; i < toRow; ++i)
+                    // Filter each source row while it's still cached.
+                    for (int k = 0; k < filteredImages.length; ++k)
+                        filters.get(k).filterRow(sourcePixels,
+                                                 source.rowOffset(i),
+                                                 filteredImages[k].getPixels(),
+                                                 filteredImages[k].rowOffset(i),
+                                                 width);
+            });
+
+        return Arrays
+            // Convert the array of filtered images into a stream.
+            .stream(filteredImages)
+
+            // Wrap each filtered image in an Image.
+            .map(filteredImage -> recyclable(new Image(image.getSourceURL(),
+                                                       filteredImage)))
+
+            // Collect the images into a list.
+            .toList();
+    }
+
+    /**
+     * Returns a PackedImage of the given size whose pixels are
+     * backed by a raster borrowed from the RasterPool, so an Image
+     * made from it should be marked recyclable.  Its pixels are
+     * undefined, so the caller must overwrite all of them.
+     */
+    public static PackedImage borrowPackedImage(int width,
+                                                int height,
+                                                boolean hasAlpha) {
+        return wrap(RasterPool
+                    .instance()
+                    .borrow(width,
+                            height,
+                            hasAlpha
+                            ? BufferedImage.TYPE_INT_ARGB
+                            : BufferedImage.TYPE_INT_RGB),
+                    hasAlpha);
+    }
+
+    /**
+     * Converts a BufferedImage into a PackedImage.  A TYPE_INT_ARGB
+     * image is wrapped without copying its pixels, whereas the pixels
+     * of all other image types are converted into a new array.
+     */
+    public static PackedImage toPackedImage(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB)
+            return wrap(image.getRaster(), true);
+
+        int width = image.getWidth();
+        int height = image.getHeight();
+        PackedImage packedImage =
+            new PackedImage(width,
+                            height,
+                            image.getColorModel().hasAlpha());
+
+        // getRGB() converts every pixel to non-premultiplied sRGB.
+        image.getRGB(0, 0, width, height,
+                     packedImage.getPixels(), 0, width);
+        return packedImage;
+    }
+
+    /**
+     * Converts a PackedImage into a BufferedImage that shares its
+     * pixels, which is TYPE_INT_ARGB if {@code packedImage} has an
+     * alpha channel and TYPE_INT_RGB otherwise.
+     */
+    public static BufferedImage toBufferedImage(PackedImage packedImage) {
+        ColorModel colorModel = packedImage.hasAlpha()
+            ? ColorModel.getRGBdefault()
+            : new DirectColorModel(24, 0xFF0000, 0xFF00, 0xFF);
+        int[] masks = ((DirectColorModel) colorModel).getMasks();
+
+        WritableRaster raster = Raster
+            .createPackedRaster(new DataBufferInt(packedImage.getPixels(),
+                                                  packedImage.getPixels().length,
+                                                  packedImage.getOffset()),
+                                packedImage.getWidth(),
+                                packedImage.getHeight(),
+                                packedImage.getStride(),
+                                masks,
+                                null);
+
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+
+    /**
+     * Wraps the array backing a TYPE_INT_ARGB or TYPE_INT_RGB {@code
+     * raster} in a PackedImage without copying it.
+     */
+    private static PackedImage wrap(WritableRaster raster,
+                                    boolean hasAlpha) {
+        SinglePixelPackedSampleModel sampleModel =
+            (SinglePixelPackedSampleModel) raster.getSampleModel();
+        DataBufferInt dataBuffer = (DataBufferInt) raster.getDataBuffer();
+
+        return new PackedImage(dataBuffer.getData(),
+                               dataBuffer.getOffset()
+                               + sampleModel.getOffset
+                               (-raster.getSampleModelTranslateX(),
+                                -raster.getSampleModelTranslateY()),
+                               raster.getWidth(),
+                               raster.getHeight(),
+                               sampleModel.getScanlineStride(),
+                               hasAlpha);
     }
 
     /**
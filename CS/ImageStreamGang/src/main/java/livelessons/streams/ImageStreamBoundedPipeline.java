@@ -0,0 +1,215 @@
+package livelessons.streams;
+
+import livelessons.filters.Filter;
+import livelessons.utils.Image;
+import livelessons.utils.Options;
+
+import java.net.URL;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * This implementation strategy customizes ImageStreamGang to run the
+ * download, filter, and store stages as a bounded pipeline.  Each
+ * stage has a configurable limit on the number of images it may hold
+ * in flight, and a stage blocks its upstream neighbor when that limit
+ * is reached (i.e., "back-pressure").  Filtered images are released
+ * as soon as they are stored and only counts are reported, so peak
+ * heap usage stays flat regardless of how many URLs are processed.
+ */
+public class ImageStreamBoundedPipeline
+       extends ImageStreamGang {
+    /**
+     * Default maximum number of images being downloaded at once.
+     */
+    private static final int sDEFAULT_MAX_DOWNLOADS = 4;
+
+    /**
+     * Default maximum number of downloaded images being filtered and
+     * stored at once.
+     */
+    private static final int sDEFAULT_MAX_FILTERS =
+        Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Limits the number of images in the download stage.
+     */
+    private final Semaphore mDownloadPermits;
+
+    /**
+     * Limits the number of images in the filter/store stage.
+     */
+    private final Semaphore mFilterPermits;
+
+    /**
+     * Thread pool that runs the (I/O-bound) download stage.
+     */
+    private final ExecutorService mDownloadExecutor;
+
+    /**
+     * Thread pool that runs the (CPU-bound) filter/store stage.
+     */
+    private final ExecutorService mFilterExecutor;
+
+    /**
+     * Counts the filtered images that were stored successfully.
+     */
+    private final LongAdder mStoredImages = new LongAdder();
+
+    /**
+     * Define a {@link ThreadFactory} that creates a new "daemon"
+     * thread.
+     */
+    private final ThreadFactory mThreadFactory =
+        runnable -> {
+            Thread thr = new Thread(runnable);
+            thr.setDaemon(true);
+            return thr;
+        };
+
+    /**
+     * Constructor initializes the superclass and uses the default
+     * in-flight limits for each stage.
+     */
+    public ImageStreamBoundedPipeline(Filter[] filters,
+                                      Iterator<List<URL>> urlListIterator) {
+        this(filters,
+             urlListIterator,
+             sDEFAULT_MAX_DOWNLOADS,
+             sDEFAULT_MAX_FILTERS);
+    }
+
+    /**
+     * Constructor initializes the superclass and data members.
+     *
+     * @param maxDownloads Maximum number of images in the download stage
+     * @param maxFilters Maximum number of images in the filter/store stage
+     */
+    public ImageStreamBoundedPipeline(Filter[] filters,
+                                      Iterator<List<URL>> urlListIterator,
+                                      int maxDownloads,
+                                      int maxFilters) {
+        super(filters, urlListIterator);
+
+        mDownloadPermits = new Semaphore(maxDownloads);
+        mFilterPermits = new Semaphore(maxFilters);
+
+        // Each stage has exactly as many threads as it has permits.
+        mDownloadExecutor =
+            Executors.newFixedThreadPool(maxDownloads, mThreadFactory);
+        mFilterExecutor =
+            Executors.newFixedThreadPool(maxFilters, mThreadFactory);
+    }
+
+    /**
+     * This hook method feeds the URLs through the bounded download
+     * and filter/store stages and waits for the pipeline to drain.
+     */
+    @Override
+    protected void processStream() {
+        // Get the input URLs.
+        List<URL> urls = getInput();
+
+        // Reset the count for this cycle.
+        mStoredImages.reset();
+
+        // Keeps track of the URLs that are still in the pipeline.
+        Phaser inFlight = new Phaser(1);
+
+        for (URL url : urls) {
+            // Ignore URLs that are already cached locally.
+            if (urlCached(url))
+                continue;
+
+            // Block until the download stage has room for another
+            // image, which throttles the rate at which URLs are fed.
+            mDownloadPermits.acquireUninterruptibly();
+            inFlight.register();
+
+            mDownloadExecutor.execute(() -> download(url, inFlight));
+        }
+
+        // Wait until every URL has been stored (or has failed).
+        inFlight.arriveAndAwaitAdvance();
+
+        System.out.println(TAG
+                           + ": processing of "
+                           + mStoredImages.sum()
+                           + " image(s) from "
+                           + urls.size()
+                           + " urls is complete");
+    }
+
+    /**
+     * Runs the download stage for {@code url} and then hands the
+     * image off to the filter/store stage.
+     */
+    private void download(URL url, Phaser inFlight) {
+        Image image;
+        try {
+            image = downloadImage(url);
+        } catch (Exception e) {
+            image = null;
+        }
+
+        // Skip images that couldn't be downloaded.
+        if (image == null) {
+            mDownloadPermits.release();
+            inFlight.arriveAndDeregister();
+            return;
+        }
+
+        // Block this download thread until the filter/store stage
+        // has room, which propagates back-pressure to the producer.
+        mFilterPermits.acquireUninterruptibly();
+        mDownloadPermits.release();
+
+        Image downloaded = image;
+        mFilterExecutor.execute(() -> filterAndStore(downloaded, inFlight));
+    }
+
+    /**
+     * Runs the filter/store stage for {@code image}.  The filtered
+     * images are dropped as soon as they have been stored.
+     */
+    private void filterAndStore(Image image, Phaser inFlight) {
+        try {
+            Stream<Image> filteredImages =
+                // Apply the point filters in a single pass if that's
+                // enabled.
+                Options.instance().fusedFiltersEnabled()
+                ? applyFiltersFused(image)
+                : mFilters
+                    .stream()
+                    .map(filter ->
+                         makeFilterDecoratorWithImage(filter, image).run());
+
+            mStoredImages.add(filteredImages
+                              .filter(Objects::nonNull)
+                              .count());
+        } finally {
+            mFilterPermits.release();
+            inFlight.arriveAndDeregister();
+        }
+    }
+
+    /**
+     * Hook method that waits for all the cycles to complete and then
+     * shuts down the stage thread pools.
+     */
+    @Override
+    protected void awaitTasksDone() {
+        super.awaitTasksDone();
+
+        mDownloadExecutor.shutdown();
+        mFilterExecutor.shutdown();
+    }
+}
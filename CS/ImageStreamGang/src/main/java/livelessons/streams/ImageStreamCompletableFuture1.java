@@ -49,8 +49,8 @@ public class ImageStreamCompletableFuture1
      */
     @Override
     protected void processStream() {
-        // Get the input URLs.
-        List<URL> urls = getInput();
+        // Get the input URLs in the order they're scheduled.
+        List<URL> urls = getScheduledInput();
 
         urls
             // Convert the URLs in the input list into a sequential
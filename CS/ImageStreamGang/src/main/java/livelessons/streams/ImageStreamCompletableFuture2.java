@@ -7,6 +7,7 @@ import livelessons.utils.StreamsUtils;
 import java.net.URL;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
@@ -77,8 +78,8 @@ public class ImageStreamCompletableFuture2
      */
     @Override
     protected void processStream() {
-        // Get the input URLs.
-        List<URL> urls = getInput();
+        // Get the input URLs in the order they're scheduled.
+        List<URL> urls = getScheduledInput();
 
         // A future to a stream of URLs.
         Stream<CompletableFuture<Optional<URL>>> urlStream = urls
@@ -127,9 +128,11 @@ public class ImageStreamCompletableFuture2
                         // thenAccept() is called when all the futures
                         // in the stream complete their processing.
                         .thenAccept(resultsStream ->
-                                    // Flatten the stream of streams
-                                    // and log the results.
-                                    log(resultsStream,
+                                    // Log the results, skipping the
+                                    // images that couldn't be
+                                    // processed.
+                                    log(resultsStream
+                                        .filter(Objects::nonNull),
                                         urls.size()))
                         
                         // Wait until all images have been downloaded,
@@ -176,9 +179,14 @@ public class ImageStreamCompletableFuture2
             .map(filter -> imageFuture
                  // Asynchronously apply a filter action after the
                  // previous stage completes.
-                 .thenApplyAsync(image -> // Create and apply the filter to the image.
-                                 makeFilterDecoratorWithImage(filter,
-                                                              image).run(),
+                 .thenApplyAsync(image -> image == null
+                                 // Skip images that couldn't be
+                                 // downloaded.
+                                 ? null
+                                 // Create and apply the filter to the
+                                 // image.
+                                 : makeFilterDecoratorWithImage(filter,
+                                                                image).run(),
                                  // Run in the fixed-sized thread pool.
                                  getExecutor()));
     }
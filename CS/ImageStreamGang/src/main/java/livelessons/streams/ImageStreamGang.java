@@ -1,22 +1,35 @@
 package livelessons.streams;
 
+import livelessons.filters.AsyncImageWriter;
 import livelessons.filters.Filter;
 import livelessons.filters.FilterDecoratorWithImage;
+import livelessons.filters.FusedFilterPass;
 import livelessons.filters.OutputFilterDecorator;
 import livelessons.utils.BlockingTask;
+import livelessons.utils.DecodedImageCache;
+import livelessons.utils.DownloadLimiter;
+import livelessons.utils.FilterResultCache;
 import livelessons.utils.Image;
+import livelessons.utils.ImageScheduler;
 import livelessons.utils.NetUtils;
 import livelessons.utils.Options;
+import livelessons.utils.PipelineMetrics;
 
-import java.io.File;
-import java.io.IOException;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toSet;
 
 /**
  * This abstract class customizes the StreamGang framework to use Java
@@ -74,6 +87,16 @@ public abstract class ImageStreamGang
         // Perform the stream processing.
         processStream();
 
+        // Wait for any images that are still being written and
+        // report those that couldn't be, since they were already
+        // counted as processed.
+        int failures = AsyncImageWriter.instance().flush();
+        if (failures > 0)
+            System.out.println(TAG
+                               + ": "
+                               + failures
+                               + " image(s) couldn't be written");
+
         // Stop timing the test run.
         stopTiming();
     }
@@ -123,7 +146,7 @@ public abstract class ImageStreamGang
      */
     @Override
     protected List<URL> getNextInput() {
-        if (mUrlListIterator.hasNext()) {
+        if (mUrlListIterator != null && mUrlListIterator.hasNext()) {
             // Note that we're starting a new cycle.
             incrementCycle();
 
@@ -136,23 +159,181 @@ public abstract class ImageStreamGang
             return null;
     }
 
+    /**
+     * Returns the input URLs in the order the ImageScheduler runs
+     * them, i.e., largest first if scheduling is enabled.
+     */
+    protected List<URL> getScheduledInput() {
+        return ImageScheduler.instance().schedule(getInput());
+    }
+
     /**
      * Transform URL to an Image by downloading each image via its
      * URL.  This call ensures the common fork/join thread pool is
-     * expanded to handle the blocking image download.
+     * expanded to handle the blocking image download.  Only the
+     * download itself runs in a managed block, so the pool doesn't
+     * add a thread for each thread that's waiting for the
+     * DownloadLimiter or decoding an image.
      */
     protected Image blockingDownload(URL url) {
-        return BlockingTask.callInManagedBlock(()
-                                               -> downloadImage(url));
+        return downloadImage(url, BlockingTask::callInManagedBlock);
     }
 
     /**
      * Factory method that retrieves the image associated with the @a
-     * url and creates an Image to encapsulate it.
+     * url and creates an Image to encapsulate it.  If the
+     * DecodedImageCache is enabled, images that were recently decoded
+     * skip both the download and the decoding.  If the
+     * DownloadLimiter is enabled, it adapts the number of downloads
+     * in flight across all the strategies.  In incremental mode,
+     * decodeImage() only decodes images whose stored images are
+     * stale, so that check runs in the download stage of each
+     * strategy.
+     *
+     * @return The image, or null if it couldn't be downloaded or
+     *         every stored image of it is current
      */
     protected Image downloadImage(URL url) {
-        return new Image(url,
-                         NetUtils.downloadContent(url));
+        return downloadImage(url, Supplier::get);
+    }
+
+    /**
+     * Retrieves the image associated with the @a url like
+     * downloadImage(URL), but runs the blocking download via @a
+     * blocker, e.g., in a managed block of the common fork/join pool.
+     *
+     * @return The image, or null if it couldn't be downloaded or
+     *         every stored image of it is current
+     */
+    private Image downloadImage(URL url,
+                                Function<Supplier<ByteBuffer>, ByteBuffer> blocker) {
+        // Incremental mode bypasses the cache, since the fingerprint
+        // of the stored images needs the hash of the content.
+        DecodedImageCache cache = DecodedImageCache.instance();
+        if (!cache.enabled() || Options.instance().incrementalEnabled())
+            return downloadAndDecode(url, blocker);
+
+        Image image = cache.get(url);
+        if (image == null) {
+            image = downloadAndDecode(url, blocker);
+            if (image != null)
+                cache.put(url, image);
+        }
+        return image;
+    }
+
+    /**
+     * Download the content of the @a url via @a blocker and decode it
+     * into an Image, recording both stages in PipelineMetrics.
+     *
+     * @return The image, or null if it couldn't be downloaded
+     */
+    private Image downloadAndDecode(URL url,
+                                    Function<Supplier<ByteBuffer>, ByteBuffer> blocker) {
+        PipelineMetrics metrics = PipelineMetrics.instance();
+
+        long downloadStart = metrics.start();
+        ByteBuffer imageData = limitedDownload(url, blocker);
+        metrics.record(PipelineMetrics.Stage.DOWNLOAD, downloadStart);
+
+        // There's nothing to decode if the download failed.
+        if (imageData == null)
+            return null;
+
+        metrics.addBytesRead(imageData.remaining());
+        return decodeImage(url, imageData);
+    }
+
+    /**
+     * Decode the @a imageData downloaded from the @a url into an
+     * Image.  In incremental mode, the content is hashed first and
+     * only decoded if the stored image of some filter is stale, i.e.,
+     * it wasn't stored from the same content by the current version
+     * of the filter with the current output settings.  The stale
+     * images are claimed, so no other thread recomputes them, and the
+     * filters whose stored images are current skip the Image.
+     *
+     * @return The image, or null if every stored image is current
+     */
+    protected Image decodeImage(URL url,
+                                ByteBuffer imageData) {
+        if (!Options.instance().incrementalEnabled())
+            return decodeImage(url, imageData, null);
+
+        // Hashing the content is much cheaper than decoding,
+        // filtering, and encoding it again.
+        String contentHash = Image.hash(imageData);
+
+        Set<String> staleFilters = mFilters
+            // Convert list of filters into a stream.
+            .stream()
+
+            // Check every filter (rather than stopping at the first
+            // stale one), so each filter's image is either current or
+            // claimed.
+            .filter(filter -> !urlCurrent(url, filter, contentHash))
+
+            // Collect the names of the stale filters.
+            .map(Filter::getName)
+            .collect(toSet());
+
+        if (staleFilters.isEmpty())
+            return null;
+
+        Image image = decodeImage(url, imageData, contentHash);
+        image.setStaleFilters(staleFilters);
+        return image;
+    }
+
+    /**
+     * Decode the @a imageData downloaded from the @a url, whose hash
+     * is @a contentHash (or null if it wasn't hashed), into an Image,
+     * recording the stage in PipelineMetrics and the size of the
+     * image in the ImageScheduler.
+     */
+    private Image decodeImage(URL url,
+                              ByteBuffer imageData,
+                              String contentHash) {
+        PipelineMetrics metrics = PipelineMetrics.instance();
+
+        long bytes = imageData.remaining();
+
+        long decodeStart = metrics.start();
+        Image image = new Image(url, imageData, contentHash);
+        metrics.record(PipelineMetrics.Stage.DECODE, decodeStart);
+
+        ImageScheduler.instance().record(url, bytes, image.getImage());
+        return image;
+    }
+
+    /**
+     * Download the content of the @a url via @a blocker, waiting for
+     * the DownloadLimiter (if it's enabled) to allow another download
+     * outside of @a blocker.
+     *
+     * @return The content, or null if it couldn't be downloaded
+     */
+    private ByteBuffer limitedDownload(URL url,
+                                       Function<Supplier<ByteBuffer>, ByteBuffer> blocker) {
+        DownloadLimiter limiter = DownloadLimiter.instance();
+        if (!limiter.enabled())
+            return blocker.apply(() -> NetUtils.downloadContentBuffer(url));
+
+        // Give up on the download if this thread is interrupted.
+        if (!limiter.acquire())
+            return null;
+
+        long start = System.nanoTime();
+        ByteBuffer imageData = null;
+        try {
+            imageData =
+                blocker.apply(() -> NetUtils.downloadContentBuffer(url));
+            return imageData;
+        } finally {
+            limiter.release(System.nanoTime() - start,
+                            imageData == null ? 0 : imageData.remaining(),
+                            imageData != null);
+        }
     }
 
     /**
@@ -165,42 +346,82 @@ public abstract class ImageStreamGang
     }
 
     /**
-     * Checks to see if the @a url is already exists in the file
-     * system.  If not, it atomically creates a new file based on
-     * combining the @a url with the @a filterName and returns false,
-     * else true.
+     * Apply all the filters in mFilters to the {@code image} using a
+     * FusedFilterPass, so the point filters share one pass over the
+     * source pixels, and store each filtered image in an output file.
+     *
+     * @return A stream of the filtered images, in mFilters order
+     */
+    protected Stream<Image> applyFiltersFused(Image image) {
+        List<Image> filteredImages =
+            FusedFilterPass.filter(mFilters, image);
+
+        return IntStream
+            // Iterate through the indices of the filters.
+            .range(0, mFilters.size())
+
+            // Store each filtered image in the output directory of
+            // its filter.
+            .mapToObj(i -> new OutputFilterDecorator(mFilters.get(i))
+                      .store(filteredImages.get(i)));
+    }
+
+    /**
+     * Checks to see if the @a url filtered by @a filterName has
+     * already been stored, which is an in-memory lookup in the
+     * FilterResultCache.  If not, it atomically claims the @a url for
+     * @a filterName and returns false, else true.
 
-     * @return true if the @a url already exists in file system, else
-     * false.
+     * @return true if the @a url is already cached, else false.
      */
     protected boolean urlCached(URL url,
                                 String filterName) {
-        File imageFile = null;
-        try {
-            // Construct the subdirectory for the filter.
-            File externalFile =
-                new File(Options.instance().getDirectoryPath(),
-                         filterName);
-
-            // Construct a new file based on the filename for the URL.
-            imageFile =
-                new File(externalFile,
-                         NetUtils.getFileNameForUrl(url));
-            
-            // The URL is already cached if imageFile exists so we
-            // negate the return value from createNewFile().
-            return !imageFile.createNewFile();
-        } catch (IOException e) {
-            // e.printStackTrace();
-            System.out.println("file " + imageFile.toString() + e);
-            return true;
-        }
+        PipelineMetrics metrics = PipelineMetrics.instance();
+        long start = metrics.start();
+        boolean cached = FilterResultCache.instance().claim(url, filterName);
+        metrics.record(PipelineMetrics.Stage.CACHE_CHECK, start);
+        return cached;
     }
 
     /**
-     * @return true if the @a url is in the cache, else false.
+     * Checks to see if the @a url filtered by @a filter has already
+     * been stored from the source content with the given @a
+     * contentHash by the current version of @a filter with the
+     * current output settings.  If not, it atomically claims the @a
+     * url for @a filter and returns false, else true.
+     *
+     * @return true if the @a url is cached and current, else false.
+     */
+    protected boolean urlCurrent(URL url,
+                                 Filter filter,
+                                 String contentHash) {
+        PipelineMetrics metrics = PipelineMetrics.instance();
+        long start = metrics.start();
+        boolean current = FilterResultCache
+            .instance()
+            .claim(url,
+                   filter.getName(),
+                   contentHash,
+                   filter.getVersion(),
+                   Options
+                   .instance()
+                   .getOutputSettings(Options.instance().getOutputFormat()));
+        metrics.record(PipelineMetrics.Stage.CACHE_CHECK, start);
+        return current;
+    }
+
+    /**
+     * @return true if the @a url is in the cache, else false.  In
+     *         incremental mode, this returns false without any I/O,
+     *         since whether the stored images are current depends on
+     *         the source content, which decodeImage() checks in the
+     *         download stage of each strategy rather than in the
+     *         (often single) thread that feeds it the URLs.
      */
     protected boolean urlCached(URL url) {
+        if (Options.instance().incrementalEnabled())
+            return false;
+
         // Iterate through the list of filters and check to see which
         // images already exist in the cache.
         return mFilters
@@ -241,7 +462,9 @@ public abstract class ImageStreamGang
      * Stop timing the test run.
      */
     public void stopTiming() {
-        mExecutionTimes.add((System.nanoTime() - mStartTime) / 1_000_000);
+        long elapsedNanos = System.nanoTime() - mStartTime;
+        mExecutionTimes.add(elapsedNanos / 1_000_000);
+        PipelineMetrics.instance().addActiveTime(elapsedNanos);
     }
 }
 
@@ -3,12 +3,15 @@ package livelessons.streams;
 import java.net.URL;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Objects;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import livelessons.filters.Filter;
 import livelessons.utils.Image;
+import livelessons.utils.ImageScheduler;
+import livelessons.utils.Options;
 
 /**
  * This implementation strategy customizes ImageStreamGang to use
@@ -36,13 +39,16 @@ public class ImageStreamParallel
      */
     @Override
     protected void processStream() {
-        // Get the list of URLs.
-        List<URL> urls = getInput();
+        // Get the list of URLs in the order they're scheduled.
+        List<URL> urls = getScheduledInput();
+
+        List<Image> filteredImages = ImageScheduler
+            .instance()
 
-        List<Image> filteredImages = urls
             // Convert the URLs in the input list into a stream and
-            // process them in parallel.
-            .parallelStream()
+            // process them in parallel, balancing their costs if
+            // scheduling is enabled.
+            .parallelStream(urls)
 
             // Use filter() to ignore URLs that are already cached
             // locally, i.e., only download non-cached images.
@@ -53,6 +59,9 @@ public class ImageStreamParallel
             // pool is expanded to handle the blocking image download.
             .map(this::blockingDownload)
 
+            // Ignore images that couldn't be downloaded.
+            .filter(Objects::nonNull)
+
             // Use map() to create a stream containing multiple
             // filtered versions of each image.
             .map(this::applyFilters)
@@ -78,6 +87,10 @@ public class ImageStreamParallel
      * @return a stream of filtered images
      */
     private Stream<Image> applyFilters(Image image) {
+        // Apply the point filters in a single pass if that's enabled.
+        if (Options.instance().fusedFiltersEnabled())
+            return applyFiltersFused(image);
+
         return mFilters
            // Iterate through the list of image filters concurrently
            // and apply each one to the image.
@@ -63,8 +63,9 @@ public class ImageStreamReactor1
                      // Transform each URL to an image by downloading
                      // it via blockingDownload(), which expands the
                      // common fork/join thread pool to handle the
-                     // blocking image download.
-                     .map(this::blockingDownload)
+                     // blocking image download, ignoring images that
+                     // couldn't be downloaded.
+                     .mapNotNull(this::blockingDownload)
 
                      // Use flatMap() to create a stream containing
                      // multiple filtered versions of each image.
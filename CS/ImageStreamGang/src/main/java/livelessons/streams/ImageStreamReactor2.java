@@ -4,6 +4,7 @@ import livelessons.filters.Filter;
 import livelessons.utils.Image;
 import livelessons.utils.ReactorUtils;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Schedulers;
 
 import java.net.URL;
@@ -55,8 +56,9 @@ public class ImageStreamReactor2
 
             // Transform each URL to an image by downloading it via
             // blockingDownload(), which expands the common fork/join
-            // thread pool to handle the blocking image download.
-            .map(this::blockingDownload)
+            // thread pool to handle the blocking image download,
+            // ignoring images that couldn't be downloaded.
+            .flatMap(url -> Mono.justOrEmpty(blockingDownload(url)))
 
             // Use flatMap() to create a stream containing multiple
             // filtered versions of each image.
@@ -0,0 +1,370 @@
+package livelessons.streams;
+
+import livelessons.filters.Filter;
+import livelessons.filters.FusedFilterPass;
+import livelessons.filters.OutputFilterDecorator;
+import livelessons.utils.DecodedImageCache;
+import livelessons.utils.DownloadLimiter;
+import livelessons.utils.Image;
+import livelessons.utils.NetUtils;
+import livelessons.utils.Options;
+import livelessons.utils.PipelineMetrics;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * This implementation strategy customizes ImageStreamGang to use
+ * Project Reactor with non-blocking I/O to download, process, and
+ * store images concurrently.  Images are read via an
+ * AsynchronousFileChannel (local files) or HttpClient.sendAsync()
+ * (remote files), so no thread blocks while they are downloaded.
+ * Images are decoded and filtered on the Schedulers.parallel() pool,
+ * which has as many threads as there are processors, and stored on a
+ * bounded I/O scheduler, since writing files has no non-blocking
+ * API.  The number of concurrent downloads and filtered images and
+ * the flatMap() prefetch are explicit knobs, so no stage can flood
+ * the next one.  Downloads also wait for the DownloadLimiter (if it's
+ * enabled) without parking a thread, and images that can't be
+ * downloaded, filtered, or stored are skipped rather than aborting
+ * the whole cycle.
+ */
+public class ImageStreamReactorNio
+       extends ImageStreamGang {
+    /**
+     * Default maximum number of images being downloaded at once.
+     */
+    private static final int sDEFAULT_DOWNLOAD_CONCURRENCY = 8;
+
+    /**
+     * Default maximum number of images being filtered at once.
+     */
+    private static final int sDEFAULT_FILTER_CONCURRENCY =
+        Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Default number of elements each flatMap() requests from its
+     * inner publishers at a time.
+     */
+    private static final int sDEFAULT_PREFETCH = 4;
+
+    /**
+     * Default number of threads that store filtered images.
+     */
+    private static final int sDEFAULT_WRITE_THREADS = 2;
+
+    /**
+     * Maximum number of images being downloaded at once.
+     */
+    private final int mDownloadConcurrency;
+
+    /**
+     * Maximum number of images being filtered at once.
+     */
+    private final int mFilterConcurrency;
+
+    /**
+     * Number of elements each flatMap() requests at a time.
+     */
+    private final int mPrefetch;
+
+    /**
+     * The bounded scheduler that stores filtered images and runs
+     * downloads that have no non-blocking API.
+     */
+    private final Scheduler mIoScheduler;
+
+    /**
+     * Constructor initializes the superclass and uses the default
+     * concurrency and prefetch settings.
+     */
+    public ImageStreamReactorNio(Filter[] filters,
+                                 Iterator<List<URL>> urlListIterator) {
+        this(filters,
+             urlListIterator,
+             sDEFAULT_DOWNLOAD_CONCURRENCY,
+             sDEFAULT_FILTER_CONCURRENCY,
+             sDEFAULT_PREFETCH,
+             sDEFAULT_WRITE_THREADS);
+    }
+
+    /**
+     * Constructor initializes the superclass and data members.
+     *
+     * @param downloadConcurrency Maximum number of images being downloaded
+     * @param filterConcurrency Maximum number of images being filtered
+     * @param prefetch Number of elements each flatMap() requests at a time
+     * @param writeThreads Number of threads that store filtered images
+     */
+    public ImageStreamReactorNio(Filter[] filters,
+                                 Iterator<List<URL>> urlListIterator,
+                                 int downloadConcurrency,
+                                 int filterConcurrency,
+                                 int prefetch,
+                                 int writeThreads) {
+        super(filters, urlListIterator);
+
+        mDownloadConcurrency = downloadConcurrency;
+        mFilterConcurrency = filterConcurrency;
+        mPrefetch = prefetch;
+        mIoScheduler = Schedulers.newBoundedElastic(writeThreads,
+                                                    Integer.MAX_VALUE,
+                                                    "ImageStreamReactorNio-io",
+                                                    60,
+                                                    true);
+    }
+
+    /**
+     * Perform the ImageStreamGang processing, which uses Project
+     * Reactor and non-blocking I/O to download, process, and store
+     * images concurrently.
+     */
+    @Override
+    protected void processStream() {
+        // Get the list of URLs.
+        List<URL> urls = getInput();
+
+        Long storedImages = Flux
+            // Convert collection into a flux.
+            .fromIterable(urls)
+
+            // Use filter() to ignore URLs that are already cached
+            // locally, i.e., only download non-cached images.
+            .filter(url -> !urlCached(url))
+
+            // Download and decode up to mDownloadConcurrency images
+            // at once without blocking any threads.
+            .flatMap(this::downloadImageAsync,
+                     mDownloadConcurrency,
+                     mPrefetch)
+
+            // Filter and store up to mFilterConcurrency images at
+            // once.
+            .flatMap(this::applyFilters,
+                     mFilterConcurrency,
+                     mPrefetch)
+
+            // Count the stored images.
+            .count()
+
+            // Wait for all the images to be stored.
+            .block();
+
+        // Print the statistics.
+        System.out.println(TAG
+                           + ": processing of "
+                           + storedImages
+                           + " image(s) from "
+                           + urls.size()
+                           + " urls is complete");
+    }
+
+    /**
+     * Download the image at {@code url} without blocking and decode
+     * it on the parallel scheduler.  Images that can't be downloaded
+     * are skipped, as are images whose stored images are all current
+     * in incremental mode.
+     *
+     * @return A Mono that emits the image
+     */
+    private Mono<Image> downloadImageAsync(URL url) {
+        // Incremental mode bypasses the cache, since the fingerprint
+        // of the stored images needs the hash of the content.
+        DecodedImageCache cache = DecodedImageCache.instance();
+        boolean cacheEnabled = cache.enabled()
+            && !Options.instance().incrementalEnabled();
+        Image cachedImage = cacheEnabled ? cache.get(url) : null;
+        if (cachedImage != null)
+            return Mono.just(cachedImage);
+
+        PipelineMetrics metrics = PipelineMetrics.instance();
+
+        return Mono
+            // Start the download when the Mono is subscribed.
+            .defer(() -> {
+                    long start = metrics.start();
+                    return limitedDownloadAsync(url)
+                        .doOnNext(imageData -> {
+                                metrics.record(PipelineMetrics.Stage.DOWNLOAD,
+                                               start);
+                                metrics.addBytesRead(imageData.remaining());
+                            });
+                })
+
+            // Decode the image on the parallel scheduler, since the
+            // download completes on an I/O thread.  In incremental
+            // mode, this is empty if every stored image is current.
+            .publishOn(Schedulers.parallel())
+            .mapNotNull(imageData -> decodeImage(url, imageData))
+
+            // Add the image to the cache if it's enabled.
+            .doOnNext(image -> {
+                    if (cacheEnabled)
+                        cache.put(url, image);
+                })
+
+            // Skip images that can't be downloaded.
+            .onErrorResume(ex -> {
+                    System.out.println("unable to download " + url + " " + ex);
+                    return Mono.empty();
+                });
+    }
+
+    /**
+     * Download the content of the {@code url} without blocking, once
+     * the DownloadLimiter (if it's enabled) allows another download.
+     *
+     * @return A Mono that emits the content, or is empty if there's
+     *         none
+     */
+    private Mono<ByteBuffer> limitedDownloadAsync(URL url) {
+        Mono<ByteBuffer> download = Mono
+            // Start the download when the Mono is subscribed.
+            .defer(() -> Mono
+                   .fromFuture(NetUtils
+                               .downloadContentBufferAsync(url,
+                                                           mIoScheduler::schedule)));
+
+        DownloadLimiter limiter = DownloadLimiter.instance();
+        if (!limiter.enabled())
+            return download;
+
+        return Mono
+            // Track the size of each download separately.
+            .defer(() -> {
+                    AtomicLong bytes = new AtomicLong(-1);
+                    Function<Long, Mono<Void>> release = start -> Mono
+                        .fromRunnable(() ->
+                                      limiter.release(System.nanoTime() - start,
+                                                      Math.max(0, bytes.get()),
+                                                      bytes.get() >= 0));
+
+                    return Mono
+                        // Wait for the limiter without parking a
+                        // thread, then download the content and
+                        // release the limiter when the download
+                        // completes, fails, or is cancelled.
+                        .usingWhen(waitForSlot(limiter),
+                                   start -> download
+                                   .doOnNext(imageData ->
+                                             bytes.set(imageData.remaining())),
+                                   release,
+                                   (start, ex) -> release.apply(start),
+                                   release);
+                });
+    }
+
+    /**
+     * Wait for the {@code limiter} to allow another download without
+     * blocking any thread.
+     *
+     * @return A Mono that emits the System.nanoTime() at which the
+     *         download may start
+     */
+    private static Mono<Long> waitForSlot(DownloadLimiter limiter) {
+        return Mono
+            // Ask for a slot when the Mono is subscribed.
+            .defer(() -> {
+                    CompletableFuture<Long> slot = limiter.acquireAsync();
+                    return Mono
+                        // Emit once the slot is granted.
+                        .fromFuture(slot)
+
+                        // Stop waiting if the download is cancelled.
+                        .doOnCancel(() -> limiter.cancel(slot))
+
+                        // Give back a slot that was granted after the
+                        // download was cancelled.
+                        .doOnDiscard(Long.class,
+                                     start -> limiter.releaseUnused());
+                });
+    }
+
+    /**
+     * Apply all the filters to the {@code image} on the parallel
+     * scheduler and store each filtered image on the I/O scheduler.
+     *
+     * @return A Flux of the stored images
+     */
+    private Flux<Image> applyFilters(Image image) {
+        // Apply the point filters in a single pass if that's enabled.
+        if (Options.instance().fusedFiltersEnabled())
+            return Mono
+                // Filter the image on the parallel scheduler.
+                .fromCallable(() -> FusedFilterPass.filter(mFilters, image))
+                .subscribeOn(Schedulers.parallel())
+
+                // Pair each filtered image with the index of its
+                // filter.
+                .flatMapMany(filteredImages -> Flux
+                             .range(0, mFilters.size())
+                             .flatMap(i -> store(mFilters.get(i),
+                                                 filteredImages.get(i))))
+
+                // Skip the image if it can't be filtered.
+                .onErrorResume(ex -> skip(image, ex));
+
+        return Flux
+            // Convert the filters into a flux.
+            .fromIterable(mFilters)
+
+            // Apply each filter on the parallel scheduler and then
+            // store the result on the I/O scheduler.
+            .flatMap(filter -> Mono
+                     .fromCallable(() -> filter.filter(image))
+                     .subscribeOn(Schedulers.parallel())
+                     .flatMap(filteredImage -> store(filter, filteredImage))
+
+                     // Skip this filter if it fails on the image.
+                     .onErrorResume(ex -> skip(image, ex)));
+    }
+
+    /**
+     * Report that the {@code image} couldn't be processed due to
+     * {@code ex}.
+     *
+     * @return An empty Mono, so the other images are still processed
+     */
+    private Mono<Image> skip(Image image, Throwable ex) {
+        System.out.println("unable to process "
+                           + image.getSourceURL()
+                           + " "
+                           + ex);
+        return Mono.empty();
+    }
+
+    /**
+     * Store the {@code image} that was filtered by {@code filter} on
+     * the I/O scheduler.
+     *
+     * @return A Mono that emits the stored image, or is empty if it
+     *         couldn't be stored
+     */
+    private Mono<Image> store(Filter filter, Image image) {
+        return image == null
+            ? Mono.empty()
+            : Mono
+                .fromCallable(() -> new OutputFilterDecorator(filter).store(image))
+                .subscribeOn(mIoScheduler);
+    }
+
+    /**
+     * Hook method that waits for all the cycles to complete and then
+     * disposes of the I/O scheduler.
+     */
+    @Override
+    protected void awaitTasksDone() {
+        super.awaitTasksDone();
+
+        mIoScheduler.dispose();
+    }
+}
@@ -9,6 +9,7 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Optional;
 
 /**
  * This implementation strategy customizes ImageStreamGang to use
@@ -63,8 +64,10 @@ public class ImageStreamRxJava1
                      // Transform each URL to an image by downloading
                      // it via blockingDownload(), which expands the
                      // common fork/join thread pool to handle the
-                     // blocking image download.
-                     .map(this::blockingDownload)
+                     // blocking image download, ignoring images that
+                     // couldn't be downloaded.
+                     .mapOptional(___ ->
+                                  Optional.ofNullable(blockingDownload(url)))
 
                      // Use flatMap() to create a stream containing
                      // multiple filtered versions of each image.
@@ -13,6 +13,7 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.ForkJoinPool;
 
 /**
@@ -59,8 +60,9 @@ public class ImageStreamRxJava2
 
             // Transform each URL to an image by downloading it via
             // blockingDownload(), which expands the common fork/join
-            // thread pool to handle the blocking image download.
-            .map(this::blockingDownload)
+            // thread pool to handle the blocking image download,
+            // ignoring images that couldn't be downloaded.
+            .mapOptional(url -> Optional.ofNullable(blockingDownload(url)))
 
             // Use flatMap() to create a stream containing multiple
             // filtered versions of each image.
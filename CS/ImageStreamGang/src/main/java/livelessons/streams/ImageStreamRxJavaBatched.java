@@ -0,0 +1,204 @@
+package livelessons.streams;
+
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.core.Maybe;
+import livelessons.filters.Filter;
+import livelessons.filters.FusedFilterPass;
+import livelessons.filters.OutputFilterDecorator;
+import livelessons.utils.Image;
+import livelessons.utils.Options;
+import livelessons.utils.RxUtils;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * This implementation strategy customizes ImageStreamGang to use
+ * RxJava flowables, which support back-pressure, to download,
+ * process, and store batches of images concurrently.  Rather than
+ * scheduling separate tasks for each URL and each filter, it groups
+ * the URLs into batches and downloads and filters all the images in
+ * a batch in one task on the common fork-join pool, which reduces
+ * the scheduling overhead when there are many URLs.  The number of
+ * batches in flight is bounded and the filtered images are streamed
+ * to the writer (i.e., the AsyncImageWriter if it's enabled) as soon
+ * as they are ready instead of being reduced into a list.  Images
+ * that can't be downloaded, filtered, or stored are skipped rather
+ * than aborting the whole cycle.
+ */
+public class ImageStreamRxJavaBatched
+       extends ImageStreamGang {
+    /**
+     * Default number of URLs in each batch.
+     */
+    private static final int sDEFAULT_BATCH_SIZE = 4;
+
+    /**
+     * Default maximum number of batches being processed at once.
+     */
+    private static final int sDEFAULT_MAX_BATCHES =
+        Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Number of URLs in each batch.
+     */
+    private final int mBatchSize;
+
+    /**
+     * Maximum number of batches being processed at once.
+     */
+    private final int mMaxBatches;
+
+    /**
+     * Constructor initializes the superclass and uses the default
+     * batch size and concurrency.
+     */
+    public ImageStreamRxJavaBatched(Filter[] filters,
+                                    Iterator<List<URL>> urlListIterator) {
+        this(filters,
+             urlListIterator,
+             sDEFAULT_BATCH_SIZE,
+             sDEFAULT_MAX_BATCHES);
+    }
+
+    /**
+     * Constructor initializes the superclass and data members.
+     *
+     * @param batchSize Number of URLs in each batch
+     * @param maxBatches Maximum number of batches being processed at once
+     */
+    public ImageStreamRxJavaBatched(Filter[] filters,
+                                    Iterator<List<URL>> urlListIterator,
+                                    int batchSize,
+                                    int maxBatches) {
+        super(filters, urlListIterator);
+
+        mBatchSize = batchSize;
+        mMaxBatches = maxBatches;
+    }
+
+    /**
+     * Perform the ImageStreamGang processing, which uses RxJava
+     * flowables to download, process, and store batches of images
+     * concurrently.
+     */
+    @Override
+    protected void processStream() {
+        // Get the list of URLs.
+        List<URL> urls = getInput();
+
+        long storedImages = Flowable
+            // Convert the URLs in the input list into a flowable.
+            .fromIterable(urls)
+
+            // Use filter() to ignore URLs that are already cached
+            // locally, i.e., only download non-cached images.
+            .filter(url -> !urlCached(url))
+
+            // Group the URLs into batches.
+            .buffer(mBatchSize)
+
+            // Process up to mMaxBatches batches at once, each in a
+            // single task on the common fork-join pool.
+            .flatMap(batch -> Flowable
+                     .fromCallable(() -> processBatch(batch))
+                     .compose(RxUtils.commonPoolFlowable()),
+                     mMaxBatches)
+
+            // Flatten the futures of each batch into one flowable.
+            .flatMapIterable(futures -> futures)
+
+            // Wait for each filtered image to be stored, skipping
+            // those that couldn't be stored (i.e., null results).
+            .concatMapMaybe(Maybe::fromCompletionStage)
+
+            // Count the stored images.
+            .count()
+
+            // Wait for all the images to be stored.
+            .blockingGet();
+
+        // Print the statistics.
+        System.out.println(TAG
+                           + ": processing of "
+                           + storedImages
+                           + " image(s) from "
+                           + urls.size()
+                           + " urls is complete");
+    }
+
+    /**
+     * Download and filter the images at all the {@code urls} in the
+     * calling thread and hand each filtered image to the writer.
+     * Images that can't be downloaded, filtered, or stored are
+     * skipped rather than failing the whole batch.
+     *
+     * @return A future to each stored image, which completes with
+     *         null if the image couldn't be stored
+     */
+    private List<CompletableFuture<Image>> processBatch(List<URL> urls) {
+        List<CompletableFuture<Image>> futures =
+            new ArrayList<>(urls.size() * mFilters.size());
+
+        for (URL url : urls) {
+            Image image;
+            List<Image> filteredImages = null;
+            try {
+                // Download the image, which expands the common
+                // fork/join thread pool to handle the blocking image
+                // download.
+                image = blockingDownload(url);
+
+                // Apply the point filters in a single pass if that's
+                // enabled.
+                if (image != null
+                    && Options.instance().fusedFiltersEnabled())
+                    filteredImages = FusedFilterPass.filter(mFilters, image);
+            } catch (Exception e) {
+                skip(url, e);
+                continue;
+            }
+
+            // Skip images that couldn't be downloaded.
+            if (image == null)
+                continue;
+
+            for (int i = 0; i < mFilters.size(); i++) {
+                Filter filter = mFilters.get(i);
+                try {
+                    Image filteredImage = filteredImages != null
+                        ? filteredImages.get(i)
+                        : filter.filter(image);
+                    if (filteredImage != null)
+                        futures.add(new OutputFilterDecorator(filter)
+                                    .storeAsync(filteredImage)
+
+                                    // Skip images that couldn't be
+                                    // stored.
+                                    .exceptionally(ex -> skip(url, ex)));
+                } catch (Exception e) {
+                    // Skip this filter if it fails on the image.
+                    skip(url, e);
+                }
+            }
+        }
+        return futures;
+    }
+
+    /**
+     * Report that the image at {@code url} couldn't be processed due
+     * to {@code ex}.
+     *
+     * @return null, so the other images are still processed
+     */
+    private static Image skip(URL url, Throwable ex) {
+        System.out.println("unable to process "
+                           + url
+                           + " "
+                           + ex);
+        return null;
+    }
+}
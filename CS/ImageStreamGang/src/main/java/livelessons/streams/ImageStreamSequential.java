@@ -5,11 +5,13 @@ import static java.util.stream.Collectors.toList;
 import java.net.URL;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Objects;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
 
 import livelessons.utils.Image;
 import livelessons.filters.Filter;
+import livelessons.utils.Options;
 
 /**
  * This implementation strategy customizes ImageStreamGang to use a
@@ -47,6 +49,9 @@ public class ImageStreamSequential
             // synchronously download each image via its URL).
             .map(this::downloadImage)
 
+            // Ignore images that couldn't be downloaded.
+            .filter(Objects::nonNull)
+
             // Use flatMap() to create a stream containing multiple
             // filtered versions of each image.
             .flatMap(this::applyFilters)
@@ -67,6 +72,10 @@ public class ImageStreamSequential
      * Apply the image filters to each @a image sequentially.
      */
     private Stream<Image> applyFilters(Image image) {
+        // Apply the point filters in a single pass if that's enabled.
+        if (Options.instance().fusedFiltersEnabled())
+            return applyFiltersFused(image);
+
         return mFilters
             // Iterate through the list of image filters sequentially and
             // apply each one to the image.
@@ -0,0 +1,403 @@
+package livelessons.streams;
+
+import livelessons.filters.Filter;
+import livelessons.filters.FusedFilterPass;
+import livelessons.filters.OutputFilterDecorator;
+import livelessons.utils.Image;
+import livelessons.utils.Options;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+import static livelessons.utils.StreamOfFuturesCollector.toFuture;
+
+/**
+ * This implementation strategy customizes ImageStreamGang to run the
+ * download, filter, and store stages as a staged event-driven
+ * pipeline.  Each stage has its own executor that's sized for the
+ * resource it uses, i.e., I/O-bound thread pools for downloading and
+ * storing and a work-stealing ForkJoinPool for the CPU-bound filters.
+ * Images are handed from stage to stage asynchronously, so the filter
+ * threads never block on the network or the disk and the download
+ * threads keep fetching image N+1 while image N is being filtered.
+ * The fraction of time each stage is busy is reported after each
+ * cycle to help tune the number of threads in each stage.  The
+ * handoffs between the stages are bounded by semaphores that only the
+ * thread feeding URLs into the pipeline blocks on, so neither the
+ * downloaded nor the filtered images can accumulate faster than the
+ * next stage consumes them, and no stage ever runs another stage's
+ * tasks.
+ */
+public class ImageStreamStagedPipeline
+       extends ImageStreamGang {
+    /**
+     * Default number of threads that download images.
+     */
+    private static final int sDEFAULT_DOWNLOAD_THREADS = 4;
+
+    /**
+     * Default number of threads that filter images.
+     */
+    private static final int sDEFAULT_FILTER_THREADS =
+        Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Default number of threads that store filtered images.
+     */
+    private static final int sDEFAULT_STORE_THREADS = 2;
+
+    /**
+     * The number of images per store thread whose filtered images
+     * may wait to be stored before no more URLs are fed into the
+     * pipeline.
+     */
+    private static final int sSTORE_QUEUE_PER_THREAD = 4;
+
+    /**
+     * Limits the number of images that are being downloaded or are
+     * waiting to be filtered.  A permit is taken before a URL is fed
+     * into the pipeline and is returned once the image is filtered.
+     */
+    private final Semaphore mDownloadPermits;
+
+    /**
+     * Limits the number of images in the whole pipeline, so the
+     * filtered images (which are much larger than the downloaded
+     * content) can't pile up if storing is slower than filtering.  A
+     * permit is taken before a URL is fed into the pipeline and is
+     * returned once all its filtered images are stored.
+     */
+    private final Semaphore mStorePermits;
+
+    /**
+     * A stage of the pipeline, which runs tasks on its executor and
+     * keeps track of how long its threads are busy.
+     */
+    private static class Stage
+            implements Executor {
+        /**
+         * The name of the stage.
+         */
+        private final String mName;
+
+        /**
+         * The executor that runs the tasks of the stage.
+         */
+        private final ExecutorService mExecutor;
+
+        /**
+         * The number of threads in the executor.
+         */
+        private final int mThreads;
+
+        /**
+         * The total time the threads spent running tasks.
+         */
+        private final LongAdder mBusyNanos = new LongAdder();
+
+        /**
+         * Constructor initializes the data members.
+         */
+        Stage(String name,
+              ExecutorService executor,
+              int threads) {
+            mName = name;
+            mExecutor = executor;
+            mThreads = threads;
+        }
+
+        /**
+         * Run the {@code task} on the executor of this stage and
+         * record how long it takes.
+         */
+        @Override
+        public void execute(Runnable task) {
+            mExecutor.execute(() -> {
+                    long start = System.nanoTime();
+                    try {
+                        task.run();
+                    } finally {
+                        mBusyNanos.add(System.nanoTime() - start);
+                    }
+                });
+        }
+
+        /**
+         * @return The utilization of the stage since the last call,
+         *         i.e., the fraction of the available thread time
+         *         during {@code elapsedNanos} that was busy.
+         */
+        double utilization(long elapsedNanos) {
+            return elapsedNanos == 0
+                ? 0
+                : (double) mBusyNanos.sumThenReset()
+                    / ((double) elapsedNanos * mThreads);
+        }
+
+        /**
+         * Shut down the executor of this stage.
+         */
+        void shutdown() {
+            mExecutor.shutdown();
+        }
+
+        /**
+         * @return A summary of the utilization of the stage.
+         */
+        String toString(long elapsedNanos) {
+            return String.format("%s %.0f%% busy (%d thread(s))",
+                                 mName,
+                                 utilization(elapsedNanos) * 100,
+                                 mThreads);
+        }
+    }
+
+    /**
+     * The stage that downloads (and decodes) images.
+     */
+    private final Stage mDownloadStage;
+
+    /**
+     * The stage that filters images.
+     */
+    private final Stage mFilterStage;
+
+    /**
+     * The stage that stores filtered images.
+     */
+    private final Stage mStoreStage;
+
+    /**
+     * Define a {@link ThreadFactory} that creates a new "daemon"
+     * thread.
+     */
+    private final ThreadFactory mThreadFactory =
+        runnable -> {
+            Thread thr = new Thread(runnable);
+            thr.setDaemon(true);
+            return thr;
+        };
+
+    /**
+     * Constructor initializes the superclass and uses the default
+     * number of threads for each stage.
+     */
+    public ImageStreamStagedPipeline(Filter[] filters,
+                                     Iterator<List<URL>> urlListIterator) {
+        this(filters,
+             urlListIterator,
+             sDEFAULT_DOWNLOAD_THREADS,
+             sDEFAULT_FILTER_THREADS,
+             sDEFAULT_STORE_THREADS);
+    }
+
+    /**
+     * Constructor initializes the superclass and data members.
+     *
+     * @param downloadThreads Number of threads that download images
+     * @param filterThreads Number of threads that filter images
+     * @param storeThreads Number of threads that store images
+     */
+    public ImageStreamStagedPipeline(Filter[] filters,
+                                     Iterator<List<URL>> urlListIterator,
+                                     int downloadThreads,
+                                     int filterThreads,
+                                     int storeThreads) {
+        super(filters, urlListIterator);
+
+        // Let each download and filter thread have an image queued
+        // behind the one it's working on.
+        int maxDownloads = 2 * (downloadThreads + filterThreads);
+        mDownloadPermits = new Semaphore(maxDownloads);
+        mStorePermits =
+            new Semaphore(maxDownloads
+                          + storeThreads * sSTORE_QUEUE_PER_THREAD);
+
+        mDownloadStage =
+            new Stage("download",
+                      Executors.newFixedThreadPool(downloadThreads,
+                                                   mThreadFactory),
+                      downloadThreads);
+
+        // Use a work-stealing pool in FIFO (async) mode for the
+        // CPU-bound filters, whose threads are daemons by default.
+        mFilterStage =
+            new Stage("filter",
+                      new ForkJoinPool(filterThreads,
+                                       ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+                                       null,
+                                       true),
+                      filterThreads);
+
+        // The queue of the store stage is bounded by mStorePermits.
+        mStoreStage =
+            new Stage("store",
+                      Executors.newFixedThreadPool(storeThreads,
+                                                   mThreadFactory),
+                      storeThreads);
+    }
+
+    /**
+     * This hook method feeds the URLs into the pipeline as fast as
+     * its bounded handoffs allow, waits for all of them to be stored,
+     * and then reports the utilization of each stage.
+     */
+    @Override
+    protected void processStream() {
+        // Get the input URLs.
+        List<URL> urls = getInput();
+
+        long start = System.nanoTime();
+
+        List<CompletableFuture<Image>> storedFutures = new ArrayList<>();
+        for (URL url : urls) {
+            // Ignore URLs that are already cached locally.
+            if (urlCached(url))
+                continue;
+
+            // Block until both handoffs have room for another image,
+            // which throttles the rate at which URLs are fed.
+            mStorePermits.acquireUninterruptibly();
+            mDownloadPermits.acquireUninterruptibly();
+
+            // Start the URL through the pipeline asynchronously.
+            storedFutures.addAll(processImage(url));
+        }
+
+        long storedImages = storedFutures
+            // Convert the list of futures into a stream.
+            .stream()
+
+            // Return a future to a stream of stored images.
+            .collect(toFuture())
+
+            // Wait for all the images to be stored.
+            .join()
+
+            // Count the images that were stored successfully.
+            .filter(Objects::nonNull)
+            .count();
+
+        long elapsedNanos = System.nanoTime() - start;
+
+        System.out.println(TAG
+                           + ": processing of "
+                           + storedImages
+                           + " image(s) from "
+                           + urls.size()
+                           + " urls is complete ("
+                           + mDownloadStage.toString(elapsedNanos) + ", "
+                           + mFilterStage.toString(elapsedNanos) + ", "
+                           + mStoreStage.toString(elapsedNanos) + ")");
+    }
+
+    /**
+     * Download the image at {@code url} in the download stage, filter
+     * it in the filter stage, and store each filtered image in the
+     * store stage.  The permits taken by processStream() are returned
+     * as the image leaves each handoff.
+     *
+     * @return A list of futures to the stored images
+     */
+    private List<CompletableFuture<Image>> processImage(URL url) {
+        CompletableFuture<Image> imageFuture = CompletableFuture
+            // Download the image in the download stage.
+            .supplyAsync(() -> downloadImage(url), mDownloadStage);
+
+        List<CompletableFuture<Image>> filteredFutures;
+        List<CompletableFuture<Image>> storedFutures;
+
+        // Apply the point filters in a single pass if that's enabled.
+        if (Options.instance().fusedFiltersEnabled()) {
+            CompletableFuture<List<Image>> filteredImages = imageFuture
+                // Filter the image in the filter stage.
+                .thenApplyAsync(image -> FusedFilterPass.filter(mFilters, image),
+                                mFilterStage);
+
+            filteredFutures = IntStream
+                // Iterate through the indices of the filters.
+                .range(0, mFilters.size())
+
+                // Pick out each filtered image.
+                .mapToObj(i -> filteredImages
+                          .thenApply(images -> images.get(i)))
+                .toList();
+        } else
+            filteredFutures = mFilters
+                // Convert the list of filters into a stream.
+                .stream()
+
+                // Apply each filter in the filter stage.
+                .map(filter -> imageFuture
+                     .thenApplyAsync(filter::filter, mFilterStage))
+                .toList();
+
+        storedFutures = IntStream
+            // Iterate through the indices of the filters.
+            .range(0, mFilters.size())
+
+            // Store each filtered image in the store stage.
+            .mapToObj(i -> filteredFutures.get(i)
+                      .thenApplyAsync(image -> store(mFilters.get(i), image),
+                                      mStoreStage)
+
+                      // Skip images that couldn't be processed.
+                      .exceptionally(ex -> null))
+            .toList();
+
+        // Return the permits once the image has been filtered and
+        // once all its filtered images have been stored (or have
+        // failed), respectively.
+        whenAllDone(filteredFutures, mDownloadPermits);
+        whenAllDone(storedFutures, mStorePermits);
+
+        return storedFutures;
+    }
+
+    /**
+     * Return a permit to the {@code permits} once all the {@code
+     * futures} have completed, whether or not they succeeded.
+     */
+    private static void whenAllDone(List<CompletableFuture<Image>> futures,
+                                    Semaphore permits) {
+        CompletableFuture
+            .allOf(futures.toArray(CompletableFuture[]::new))
+            .whenComplete((result, ex) -> permits.release());
+    }
+
+    /**
+     * Store the {@code image} that was filtered by {@code filter}.
+     *
+     * @return The stored image, or null if it couldn't be stored
+     */
+    private Image store(Filter filter, Image image) {
+        return image == null
+            ? null
+            : new OutputFilterDecorator(filter).store(image);
+    }
+
+    /**
+     * Hook method that waits for all the cycles to complete and then
+     * shuts down the stage executors.
+     */
+    @Override
+    protected void awaitTasksDone() {
+        super.awaitTasksDone();
+
+        mDownloadStage.shutdown();
+        mFilterStage.shutdown();
+        mStoreStage.shutdown();
+    }
+}
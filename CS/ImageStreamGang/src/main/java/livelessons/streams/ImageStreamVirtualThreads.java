@@ -0,0 +1,134 @@
+package livelessons.streams;
+
+import livelessons.filters.Filter;
+import livelessons.utils.Image;
+import livelessons.utils.ShutdownOnFailureScope;
+
+import java.net.URL;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This implementation strategy customizes ImageStreamGang to use Java
+ * virtual threads to download, process, and store images
+ * concurrently.  It starts one virtual thread per URL and one per
+ * (image, filter) pair, so blocking I/O (such as the image download)
+ * merely parks a virtual thread instead of tying up a platform
+ * thread, and no thread pool has to be sized or tuned.
+ */
+public class ImageStreamVirtualThreads
+       extends ImageStreamGang {
+    /**
+     * Constructor initializes the superclass.
+     */
+    public ImageStreamVirtualThreads(Filter[] filters,
+                                     Iterator<List<URL>> urlListIterator) {
+        super(filters, urlListIterator);
+    }
+
+    /**
+     * This hook method starts a virtual thread for each URL and
+     * waits for all of them to download, process, and store their
+     * images.
+     */
+    @Override
+    protected void processStream() {
+        // Get the input URLs.
+        List<URL> urls = getInput();
+
+        List<Future<Long>> results;
+
+        // The try-with-resources block waits for all the virtual
+        // threads to finish.
+        try (ExecutorService executor =
+             Executors.newVirtualThreadPerTaskExecutor()) {
+            results = urls
+                // Convert the URLs in the input list into a stream.
+                .stream()
+
+                // Start a virtual thread to process each URL.
+                .map(url -> executor.submit(() -> processUrl(url)))
+
+                // Collect the futures into a list.
+                .toList();
+        }
+
+        long filteredImages = results
+            // Convert the list of futures into a stream.
+            .stream()
+
+            // Get the result of each (completed) virtual thread.
+            .mapToLong(Future::resultNow)
+
+            // Count the number of filtered images.
+            .sum();
+
+        System.out.println(TAG
+                           + ": processing of "
+                           + filteredImages
+                           + " image(s) from "
+                           + urls.size()
+                           + " urls is complete");
+    }
+
+    /**
+     * Download the image at {@code url} in the calling virtual thread
+     * and then apply each filter in its own virtual thread within a
+     * structured scope, so a failed subtask cancels its siblings.
+     *
+     * @return The number of filtered images that were stored
+     */
+    private long processUrl(URL url) {
+        // Ignore URLs that are already cached locally.
+        if (urlCached(url))
+            return 0;
+
+        try (ShutdownOnFailureScope scope = new ShutdownOnFailureScope()) {
+            // Download the image, which blocks this virtual thread.
+            // A failed download returns null, so no filter subtasks
+            // are forked.
+            Image image = downloadImage(url);
+            if (image == null)
+                return 0;
+
+            List<Future<Image>> results = mFilters
+                // Convert the list of filters into a stream.
+                .stream()
+
+                // Fork a virtual thread to filter/store the image.
+                .map(filter -> scope
+                     .fork(() ->
+                           makeFilterDecoratorWithImage(filter, image).run()))
+
+                // Fork all the subtasks before joining any of them.
+                .toList();
+
+            // Wait for all subtasks and fail if any of them failed.
+            scope.join().throwIfFailed();
+
+            return results
+                // Convert the list of futures into a stream.
+                .stream()
+
+                // Get the result of each subtask.
+                .map(Future::resultNow)
+
+                // Only count images that were stored.
+                .filter(Objects::nonNull)
+
+                // Count the number of filtered images.
+                .count();
+        } catch (ExecutionException | RuntimeException e) {
+            System.out.println(TAG + ": processing " + url + " failed " + e);
+            return 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,640 @@
+package livelessons.utils;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A Java utility class that convolves PackedImages with separable
+ * kernels and resamples them to a different size.  The image is
+ * processed in cache-sized tiles: the pixels of each tile (plus a
+ * halo of neighboring pixels that's clamped at the image edges) are
+ * unpacked into one float plane per channel, convolved with the row
+ * weights and then with the column weights of each kernel, and
+ * combined into the target pixels.  The inner loops only multiply
+ * and add consecutive floats, so the JIT compiler can vectorize
+ * them, or they're run with the Vector API if SIMD kernels are
+ * enabled in Options.  Bands of tiles are processed in parallel via
+ * ParallelRows.
+ * Images with an alpha channel are convolved in premultiplied form,
+ * so transparent pixels don't bleed their color into their
+ * neighbors.
+ */
+public final class Convolution {
+    /**
+     * The indices of the channel planes.  The alpha plane only
+     * exists if the image has an alpha channel.
+     */
+    public static final int RED = 0;
+    public static final int GREEN = 1;
+    public static final int BLUE = 2;
+    public static final int ALPHA = 3;
+
+    /**
+     * The number of columns in each tile.
+     */
+    private static final int sTILE_WIDTH = 256;
+
+    /**
+     * The number of rows in each tile.
+     */
+    private static final int sTILE_HEIGHT = 64;
+
+    /**
+     * A separable kernel, i.e., the outer product of its column and
+     * row weights.  Both weight arrays must have an odd length so
+     * they're centered on the pixel being computed.
+     *
+     * @param rowWeights The weights applied along each row
+     * @param columnWeights The weights applied along each column
+     */
+    public record Kernel(float[] rowWeights,
+                         float[] columnWeights) {
+        /**
+         * Checks that both weight arrays are centered.
+         */
+        public Kernel {
+            if (rowWeights.length % 2 == 0 || columnWeights.length % 2 == 0)
+                throw new IllegalArgumentException("kernels must have odd sizes");
+        }
+
+        /**
+         * @return The number of pixels on each side of the center
+         *         along a row.
+         */
+        public int rowRadius() {
+            return rowWeights.length / 2;
+        }
+
+        /**
+         * @return The number of pixels on each side of the center
+         *         along a column.
+         */
+        public int columnRadius() {
+            return columnWeights.length / 2;
+        }
+
+        /**
+         * @return A normalized Gaussian kernel with the given {@code
+         *         radius} and standard deviation {@code sigma}
+         */
+        public static Kernel gaussian(int radius, double sigma) {
+            float[] weights = new float[2 * radius + 1];
+            double sum = 0;
+            for (int i = -radius; i <= radius; ++i)
+                sum += Math.exp(-i * i / (2 * sigma * sigma));
+            for (int i = -radius; i <= radius; ++i)
+                weights[i + radius] =
+                    (float) (Math.exp(-i * i / (2 * sigma * sigma)) / sum);
+
+            return new Kernel(weights, weights);
+        }
+    }
+
+    /**
+     * Combines the convolved channels of a tile row into the target
+     * pixels.
+     */
+    @FunctionalInterface
+    public interface Combiner {
+        /**
+         * Compute {@code length} target pixels starting at {@code
+         * targetOffset}.  {@code source[c]} holds channel {@code c}
+         * of the source pixels starting at {@code sourceOffset} and
+         * {@code convolved[k][c]} holds channel {@code c} convolved
+         * with kernel {@code k} starting at {@code convolvedOffset}.
+         * Both are premultiplied if there are 4 {@code channels}.
+         * The planes may be overwritten.
+         */
+        void combineRow(float[][] source,
+                        int sourceOffset,
+                        float[][][] convolved,
+                        int convolvedOffset,
+                        int channels,
+                        int[] target,
+                        int targetOffset,
+                        int length);
+    }
+
+    /**
+     * Computes weighted sums of rows of floats, which is where
+     * convolution spends most of its time.
+     */
+    @FunctionalInterface
+    interface RowAccumulator {
+        /**
+         * Store the weighted sum of {@code weights.length} inputs,
+         * each {@code step} floats apart, for {@code length}
+         * consecutive outputs.
+         */
+        void accumulate(float[] input,
+                        int inputOffset,
+                        int step,
+                        float[] weights,
+                        float[] output,
+                        int outputOffset,
+                        int length);
+    }
+
+    /**
+     * A utility class should always define a private constructor.
+     */
+    private Convolution() {
+    }
+
+    /**
+     * Convolve the {@code source} with the {@code kernel} and store
+     * the result in {@code target}, which must have the same size.
+     */
+    public static void convolve(PackedImage source,
+                                PackedImage target,
+                                Kernel kernel) {
+        convolve(source,
+                 target,
+                 List.of(kernel),
+                 (sourcePlanes, sourceOffset,
+                  convolved, convolvedOffset,
+                  channels,
+                  targetPixels, targetOffset,
+                  length) ->
+                 packRow(convolved[0],
+                         convolvedOffset,
+                         channels,
+                         targetPixels,
+                         targetOffset,
+                         length));
+    }
+
+    /**
+     * Convolve the {@code source} with each of the {@code kernels}
+     * and use the {@code combiner} to compute the {@code target}
+     * pixels, which must have the same size as the {@code source}.
+     */
+    public static void convolve(PackedImage source,
+                                PackedImage target,
+                                List<Kernel> kernels,
+                                Combiner combiner) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        if (target.getWidth() != width || target.getHeight() != height)
+            throw new IllegalArgumentException("images must have the same size");
+
+        int rowRadius = kernels
+            .stream()
+            .mapToInt(Kernel::rowRadius)
+            .max()
+            .orElse(0);
+        int columnRadius = kernels
+            .stream()
+            .mapToInt(Kernel::columnRadius)
+            .max()
+            .orElse(0);
+        int channels = source.hasAlpha() ? 4 : 3;
+
+        // Only refer to the Vector API if it's available.
+        RowAccumulator accumulator = Options.instance().simdEnabled()
+            ? new VectorRowAccumulator()
+            : Convolution::accumulate;
+
+        ParallelRows.forEachRowBand
+            (width,
+             height,
+             sTILE_HEIGHT,
+             (fromRow, toRow) -> {
+                // The planes are allocated once per band and reused
+                // for each of its tiles.
+                int sourceStride = sTILE_WIDTH + 2 * rowRadius;
+                float[][] sourcePlanes =
+                    new float[channels][(sTILE_HEIGHT + 2 * columnRadius)
+                                        * sourceStride];
+                float[][] rowPlanes =
+                    new float[channels][(sTILE_HEIGHT + 2 * columnRadius)
+                                        * sTILE_WIDTH];
+                float[][][] convolved =
+                    new float[kernels.size()][channels][sTILE_HEIGHT
+                                                        * sTILE_WIDTH];
+
+                for (int y = fromRow; y < toRow; y += sTILE_HEIGHT)
+                    for (int x = 0; x < width; x += sTILE_WIDTH)
+                        convolveTile(source,
+                                     target,
+                                     kernels,
+                                     combiner,
+                                     accumulator,
+                                     x,
+                                     y,
+                                     Math.min(sTILE_WIDTH, width - x),
+                                     Math.min(sTILE_HEIGHT, toRow - y),
+                                     rowRadius,
+                                     columnRadius,
+                                     sourcePlanes,
+                                     rowPlanes,
+                                     convolved);
+            });
+    }
+
+    /**
+     * Convolve the tile whose top left pixel is at ({@code x0},
+     * {@code y0}) with each of the {@code kernels} and combine the
+     * results into the {@code target}.
+     */
+    private static void convolveTile(PackedImage source,
+                                     PackedImage target,
+                                     List<Kernel> kernels,
+                                     Combiner combiner,
+                                     RowAccumulator accumulator,
+                                     int x0,
+                                     int y0,
+                                     int tileWidth,
+                                     int tileHeight,
+                                     int rowRadius,
+                                     int columnRadius,
+                                     float[][] sourcePlanes,
+                                     float[][] rowPlanes,
+                                     float[][][] convolved) {
+        int channels = sourcePlanes.length;
+        int sourceStride = sTILE_WIDTH + 2 * rowRadius;
+        int haloHeight = tileHeight + 2 * columnRadius;
+
+        // Unpack the tile and its halo.
+        for (int i = 0; i < haloHeight; ++i)
+            unpackRow(source,
+                      clamp(y0 - columnRadius + i, source.getHeight()),
+                      x0 - rowRadius,
+                      x0 + tileWidth + rowRadius,
+                      sourcePlanes,
+                      i * sourceStride);
+
+        for (int k = 0; k < kernels.size(); ++k) {
+            Kernel kernel = kernels.get(k);
+            // Kernels that are smaller than the halo skip its outer
+            // pixels.
+            int dx = rowRadius - kernel.rowRadius();
+            int dy = columnRadius - kernel.columnRadius();
+
+            for (int c = 0; c < channels; ++c) {
+                // Convolve the rows the column weights will need.
+                for (int i = dy; i < haloHeight - dy; ++i)
+                    accumulator.accumulate(sourcePlanes[c],
+                                           i * sourceStride + dx,
+                                           1,
+                                           kernel.rowWeights(),
+                                           rowPlanes[c],
+                                           i * sTILE_WIDTH,
+                                           tileWidth);
+
+                // Convolve the columns of those rows.
+                for (int i = 0; i < tileHeight; ++i)
+                    accumulator.accumulate(rowPlanes[c],
+                                           (i + dy) * sTILE_WIDTH,
+                                           sTILE_WIDTH,
+                                           kernel.columnWeights(),
+                                           convolved[k][c],
+                                           i * sTILE_WIDTH,
+                                           tileWidth);
+            }
+        }
+
+        for (int i = 0; i < tileHeight; ++i)
+            combiner.combineRow(sourcePlanes,
+                                (i + columnRadius) * sourceStride + rowRadius,
+                                convolved,
+                                i * sTILE_WIDTH,
+                                channels,
+                                target.getPixels(),
+                                target.rowOffset(y0 + i) + x0,
+                                tileWidth);
+    }
+
+    /**
+     * Resample the {@code source} to the size of the {@code target}
+     * with a triangle filter whose support grows with the reduction
+     * factor, so downscaling averages all the source pixels that
+     * cover a target pixel rather than skipping some of them.
+     */
+    public static void resample(PackedImage source,
+                                PackedImage target) {
+        int targetWidth = target.getWidth();
+        int channels = source.hasAlpha() ? 4 : 3;
+        Taps columnTaps = Taps.make(source.getWidth(), targetWidth);
+        Taps rowTaps = Taps.make(source.getHeight(), target.getHeight());
+
+        ParallelRows.forEachRowBand
+            (targetWidth,
+             target.getHeight(),
+             sTILE_HEIGHT,
+             (fromRow, toRow) -> {
+                float[][] sourceRow = new float[channels][source.getWidth()];
+                float[][] resampled = new float[channels][targetWidth];
+                float[][] rowPlanes = new float[channels][0];
+
+                for (int y = fromRow; y < toRow; y += sTILE_HEIGHT) {
+                    int tileHeight = Math.min(sTILE_HEIGHT, toRow - y);
+
+                    // Find the source rows this tile of target rows
+                    // depends on.
+                    int firstRow = rowTaps.first(y);
+                    int lastRow = rowTaps.last(y + tileHeight - 1);
+                    int rows = lastRow - firstRow + 1;
+
+                    if (rowPlanes[0].length < rows * targetWidth)
+                        rowPlanes = new float[channels][rows * targetWidth];
+
+                    // Resample each of those source rows horizontally.
+                    for (int i = 0; i < rows; ++i) {
+                        unpackRow(source,
+                                  firstRow + i,
+                                  0,
+                                  source.getWidth(),
+                                  sourceRow,
+                                  0);
+                        for (int c = 0; c < channels; ++c)
+                            columnTaps.apply(sourceRow[c],
+                                             rowPlanes[c],
+                                             i * targetWidth);
+                    }
+
+                    // Resample the columns of those rows vertically.
+                    for (int i = y; i < y + tileHeight; ++i) {
+                        for (int c = 0; c < channels; ++c) {
+                            Arrays.fill(resampled[c], 0f);
+                            for (int t = 0; t < rowTaps.mTapCount; ++t) {
+                                float weight =
+                                    rowTaps.mWeights[i * rowTaps.mTapCount + t];
+                                int row =
+                                    rowTaps.mIndices[i * rowTaps.mTapCount + t]
+                                    - firstRow;
+                                if (weight != 0f)
+                                    accumulateScaled(rowPlanes[c],
+                                                     row * targetWidth,
+                                                     weight,
+                                                     resampled[c],
+                                                     targetWidth);
+                            }
+                        }
+
+                        packRow(resampled,
+                                0,
+                                channels,
+                                target.getPixels(),
+                                target.rowOffset(i),
+                                targetWidth);
+                    }
+                }
+            });
+    }
+
+    /**
+     * The source pixels and weights that contribute to each target
+     * pixel along one axis of a resampled image.  Each target pixel
+     * has the same number of taps, padded with zero weights.
+     */
+    private static final class Taps {
+        /**
+         * The number of taps per target pixel.
+         */
+        final int mTapCount;
+
+        /**
+         * The source index of each tap, clamped to the image.
+         */
+        final int[] mIndices;
+
+        /**
+         * The normalized weight of each tap.
+         */
+        final float[] mWeights;
+
+        /**
+         * Constructor initializes the fields.
+         */
+        private Taps(int tapCount, int[] indices, float[] weights) {
+            mTapCount = tapCount;
+            mIndices = indices;
+            mWeights = weights;
+        }
+
+        /**
+         * Compute the taps for resampling {@code sourceSize} pixels
+         * to {@code targetSize} pixels.
+         */
+        static Taps make(int sourceSize, int targetSize) {
+            double scale = (double) targetSize / sourceSize;
+            // The filter must cover at least one source pixel on
+            // each side, and more when downscaling.
+            double radius = Math.max(1.0, 1.0 / scale);
+            int tapCount = (int) Math.ceil(2 * radius) + 1;
+            int[] indices = new int[targetSize * tapCount];
+            float[] weights = new float[targetSize * tapCount];
+
+            for (int i = 0; i < targetSize; ++i) {
+                double center = (i + 0.5) / scale - 0.5;
+                int first = (int) Math.ceil(center - radius);
+                double sum = 0;
+
+                for (int t = 0; t < tapCount; ++t) {
+                    double weight =
+                        Math.max(0, 1 - Math.abs(first + t - center) / radius);
+                    indices[i * tapCount + t] = clamp(first + t, sourceSize);
+                    weights[i * tapCount + t] = (float) weight;
+                    sum += weight;
+                }
+                for (int t = 0; t < tapCount; ++t)
+                    weights[i * tapCount + t] /= (float) sum;
+            }
+            return new Taps(tapCount, indices, weights);
+        }
+
+        /**
+         * @return The first source index used by target pixel {@code i}.
+         */
+        int first(int i) {
+            int first = Integer.MAX_VALUE;
+            for (int t = 0; t < mTapCount; ++t)
+                first = Math.min(first, mIndices[i * mTapCount + t]);
+            return first;
+        }
+
+        /**
+         * @return The last source index used by target pixel {@code i}.
+         */
+        int last(int i) {
+            int last = Integer.MIN_VALUE;
+            for (int t = 0; t < mTapCount; ++t)
+                last = Math.max(last, mIndices[i * mTapCount + t]);
+            return last;
+        }
+
+        /**
+         * Resample the {@code source} row and store the target row in
+         * {@code target} starting at {@code targetOffset}.
+         */
+        void apply(float[] source, float[] target, int targetOffset) {
+            int targetSize = mIndices.length / mTapCount;
+            for (int i = 0; i < targetSize; ++i) {
+                float sum = 0;
+                for (int t = i * mTapCount; t < (i + 1) * mTapCount; ++t)
+                    sum += mWeights[t] * source[mIndices[t]];
+                target[targetOffset + i] = sum;
+            }
+        }
+    }
+
+    /**
+     * Store the weighted sum of {@code weights.length} inputs, each
+     * {@code step} floats apart, for {@code length} consecutive
+     * outputs.  The weights are applied one at a time so the inner
+     * loop runs over consecutive floats.
+     */
+    private static void accumulate(float[] input,
+                                   int inputOffset,
+                                   int step,
+                                   float[] weights,
+                                   float[] output,
+                                   int outputOffset,
+                                   int length) {
+        float first = weights[0];
+        for (int x = 0; x < length; ++x)
+            output[outputOffset + x] = first * input[inputOffset + x];
+
+        for (int j = 1; j < weights.length; ++j) {
+            float weight = weights[j];
+            int offset = inputOffset + j * step;
+            for (int x = 0; x < length; ++x)
+                output[outputOffset + x] += weight * input[offset + x];
+        }
+    }
+
+    /**
+     * Add {@code weight} times {@code length} consecutive inputs to
+     * the output.
+     */
+    private static void accumulateScaled(float[] input,
+                                         int inputOffset,
+                                         float weight,
+                                         float[] output,
+                                         int length) {
+        for (int x = 0; x < length; ++x)
+            output[x] += weight * input[inputOffset + x];
+    }
+
+    /**
+     * Unpack the pixels in columns [{@code fromX}, {@code toX}) of
+     * {@code row} into the channel {@code planes} starting at {@code
+     * offset}, clamping the columns to the image and premultiplying
+     * the colors if there's an alpha plane.
+     */
+    private static void unpackRow(PackedImage source,
+                                  int row,
+                                  int fromX,
+                                  int toX,
+                                  float[][] planes,
+                                  int offset) {
+        int width = source.getWidth();
+        int from = Math.max(fromX, 0);
+        int to = Math.min(toX, width);
+
+        // Unpack the columns inside the image in a tight loop.
+        unpackPixels(source.getPixels(),
+                     source.rowOffset(row) + from,
+                     planes,
+                     offset + from - fromX,
+                     to - from);
+
+        // Replicate the edge columns into the rest of the halo.
+        for (float[] plane : planes) {
+            Arrays.fill(plane,
+                        offset,
+                        offset + from - fromX,
+                        plane[offset + from - fromX]);
+            Arrays.fill(plane,
+                        offset + to - fromX,
+                        offset + toX - fromX,
+                        plane[offset + to - fromX - 1]);
+        }
+    }
+
+    /**
+     * Unpack {@code length} pixels starting at {@code pixelOffset}
+     * into the channel {@code planes} starting at {@code offset}.
+     */
+    private static void unpackPixels(int[] pixels,
+                                     int pixelOffset,
+                                     float[][] planes,
+                                     int offset,
+                                     int length) {
+        float[] red = planes[RED];
+        float[] green = planes[GREEN];
+        float[] blue = planes[BLUE];
+
+        if (planes.length == 4) {
+            float[] alpha = planes[ALPHA];
+            for (int i = 0; i < length; ++i) {
+                int argb = pixels[pixelOffset + i];
+                float a = argb >>> 24;
+                float scale = a * (1f / 255f);
+                red[offset + i] = ((argb >> 16) & 0xFF) * scale;
+                green[offset + i] = ((argb >> 8) & 0xFF) * scale;
+                blue[offset + i] = (argb & 0xFF) * scale;
+                alpha[offset + i] = a;
+            }
+        } else
+            for (int i = 0; i < length; ++i) {
+                int argb = pixels[pixelOffset + i];
+                red[offset + i] = (argb >> 16) & 0xFF;
+                green[offset + i] = (argb >> 8) & 0xFF;
+                blue[offset + i] = argb & 0xFF;
+            }
+    }
+
+    /**
+     * Pack {@code length} pixels from the channel {@code planes}
+     * starting at {@code offset} into {@code target} starting at
+     * {@code targetOffset}, rounding and clamping each channel and
+     * unpremultiplying the colors if there are 4 {@code channels}.
+     */
+    public static void packRow(float[][] planes,
+                               int offset,
+                               int channels,
+                               int[] target,
+                               int targetOffset,
+                               int length) {
+        float[] red = planes[RED];
+        float[] green = planes[GREEN];
+        float[] blue = planes[BLUE];
+
+        if (channels == 4) {
+            float[] alpha = planes[ALPHA];
+            for (int i = 0; i < length; ++i) {
+                float a = alpha[offset + i];
+                int alphaByte = toByte(a);
+                // Fully transparent pixels have no color.
+                float scale = alphaByte == 0 ? 0f : 255f / a;
+                target[targetOffset + i] = alphaByte << 24
+                    | toByte(red[offset + i] * scale) << 16
+                    | toByte(green[offset + i] * scale) << 8
+                    | toByte(blue[offset + i] * scale);
+            }
+        } else
+            for (int i = 0; i < length; ++i)
+                target[targetOffset + i] = 0xFF000000
+                    | toByte(red[offset + i]) << 16
+                    | toByte(green[offset + i]) << 8
+                    | toByte(blue[offset + i]);
+    }
+
+    /**
+     * @return {@code value} rounded to the nearest integer in [0,
+     *         255], without branches so loops that call it can be
+     *         vectorized.
+     */
+    private static int toByte(float value) {
+        return (int) Math.min(Math.max(value + 0.5f, 0f), 255f);
+    }
+
+    /**
+     * @return {@code index} clamped to [0, {@code size}).
+     */
+    private static int clamp(int index, int size) {
+        return Math.min(Math.max(index, 0), size - 1);
+    }
+}
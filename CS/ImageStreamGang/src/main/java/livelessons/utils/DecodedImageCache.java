@@ -0,0 +1,177 @@
+package livelessons.utils;
+
+import java.awt.image.BufferedImage;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class implements the Singleton pattern to provide a
+ * least-recently-used (LRU) cache of decoded source images keyed by
+ * their URL, which is shared by all the ImageStreamGang strategies.
+ * The cache is bounded by the number of bytes in the pixels of the
+ * cached images (rather than by the number of entries) and keeps
+ * track of its hits, misses, and evictions.  Its capacity is set via
+ * Options and it's disabled when the capacity is 0.
+ */
+public class DecodedImageCache {
+    /** The singleton @a DecodedImageCache instance. */
+    private static DecodedImageCache mUniqueInstance = null;
+
+    /**
+     * The maximum number of pixel bytes in the cache.
+     */
+    private final long mCapacity;
+
+    /**
+     * The number of pixel bytes currently in the cache.
+     */
+    private long mSize;
+
+    /**
+     * Maps each URL to its decoded image in least-recently-used
+     * order.  All accesses are guarded by "this".
+     */
+    private final LinkedHashMap<String, Image> mImages =
+        new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Counts the lookups that found an image.
+     */
+    private final LongAdder mHits = new LongAdder();
+
+    /**
+     * Counts the lookups that didn't find an image.
+     */
+    private final LongAdder mMisses = new LongAdder();
+
+    /**
+     * Counts the images evicted to make room for other images.
+     */
+    private final LongAdder mEvictions = new LongAdder();
+
+    /**
+     * Method to return the one and only singleton uniqueInstance.
+     */
+    public static synchronized DecodedImageCache instance() {
+        if (mUniqueInstance == null)
+            mUniqueInstance =
+                new DecodedImageCache(Options.instance().getImageCacheBytes());
+
+        return mUniqueInstance;
+    }
+
+    /**
+     * Make the constructor private for a singleton.
+     */
+    private DecodedImageCache(long capacity) {
+        mCapacity = capacity;
+    }
+
+    /**
+     * @return true if the cache can hold any images, else false.
+     */
+    public boolean enabled() {
+        return mCapacity > 0;
+    }
+
+    /**
+     * Return a new Image that shares the decoded pixels cached for
+     * {@code url}, and their PackedImage, or null if there's no such
+     * image.
+     */
+    public Image get(URL url) {
+        Image image;
+        synchronized (this) {
+            image = mImages.get(url.toString());
+        }
+
+        if (image == null) {
+            mMisses.increment();
+            return null;
+        }
+
+        mHits.increment();
+
+        // Give each caller its own Image so setting the filter name
+        // doesn't affect the cached Image, but share the pixels of the
+        // cached Image (including its PackedImage), so they're only
+        // converted once.
+        Image copy = new Image(url, (Object) null);
+        copy.shareImage(image);
+        copy.setContentHash(image.getContentHash());
+        return copy;
+    }
+
+    /**
+     * Add the decoded {@code image} for {@code url} to the cache,
+     * evicting the least recently used images until it fits.
+     */
+    public synchronized void put(URL url, Image image) {
+        long bytes = sizeOf(image.getImage());
+
+        // Don't cache images that failed to decode or could never fit.
+        if (image.getImage() == null || bytes > mCapacity)
+            return;
+
+        Image previous = mImages.put(url.toString(), image);
+        if (previous != null)
+            mSize -= sizeOf(previous.getImage());
+        mSize += bytes;
+
+        // Evict the least recently used images.
+        Iterator<Map.Entry<String, Image>> iterator =
+            mImages.entrySet().iterator();
+        while (mSize > mCapacity && iterator.hasNext()) {
+            Map.Entry<String, Image> eldest = iterator.next();
+            mSize -= sizeOf(eldest.getValue().getImage());
+            iterator.remove();
+            mEvictions.increment();
+        }
+    }
+
+    /**
+     * @return The number of lookups that found an image.
+     */
+    public long hits() {
+        return mHits.sum();
+    }
+
+    /**
+     * @return The number of lookups that didn't find an image.
+     */
+    public long misses() {
+        return mMisses.sum();
+    }
+
+    /**
+     * @return The number of images that were evicted.
+     */
+    public long evictions() {
+        return mEvictions.sum();
+    }
+
+    /**
+     * @return A summary of the cache statistics.
+     */
+    @Override
+    public synchronized String toString() {
+        return "DecodedImageCache: "
+            + hits() + " hit(s), "
+            + misses() + " miss(es), "
+            + evictions() + " eviction(s), "
+            + mImages.size() + " image(s) using "
+            + mSize + " of " + mCapacity + " bytes";
+    }
+
+    /**
+     * @return The number of bytes used by the pixels of {@code image}.
+     */
+    private static long sizeOf(BufferedImage image) {
+        return image == null
+            ? 0
+            : RasterPool.sizeOf(image.getRaster());
+    }
+}
@@ -0,0 +1,385 @@
+package livelessons.utils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class implements the Singleton pattern to adapt the number of
+ * concurrent image downloads to the observed download latency, which
+ * is shared by all the ImageStreamGang strategies.  It uses additive
+ * increase/multiplicative decrease (AIMD), i.e., the limit grows by
+ * about one download per round trip while the latency stays close to
+ * the lowest latency seen recently and shrinks by a constant factor
+ * when the latency rises (i.e., the host or network is saturated) or
+ * a download fails (e.g., because it was throttled).  Latencies are
+ * normalized by the size of the download, so a large image isn't
+ * mistaken for overload, and the limit shrinks at most once per round
+ * trip, so a burst of slow downloads that all started before the
+ * limit shrank only counts once.  The maximum limit is set via
+ * Options, where a maximum of 0 disables limiting.  Threads can wait
+ * for a download slot via acquire(), and non-blocking strategies via
+ * acquireAsync(), which parks no thread while it waits.  The limiter
+ * is guarded by a ReentrantLock rather than by "this", so virtual
+ * threads waiting for a download slot don't pin their carrier
+ * threads.
+ */
+public class DownloadLimiter {
+    /** The singleton @a DownloadLimiter instance. */
+    private static DownloadLimiter mUniqueInstance = null;
+
+    /**
+     * The initial limit, which is capped by the maximum limit.
+     */
+    private static final double sINITIAL_LIMIT = 4;
+
+    /**
+     * The smallest limit.
+     */
+    private static final double sMIN_LIMIT = 1;
+
+    /**
+     * The factor the limit is multiplied by when it decreases.
+     */
+    private static final double sBACKOFF_RATIO = 0.9;
+
+    /**
+     * Downloads that take longer than this multiple of the baseline
+     * latency indicate that the limit is too high.
+     */
+    private static final double sLATENCY_TOLERANCE = 2.0;
+
+    /**
+     * Latencies must also exceed the baseline by this many
+     * nanoseconds to indicate overload, so jitter in very fast
+     * downloads (e.g., of local files) isn't mistaken for it.
+     */
+    private static final long sLATENCY_SLACK_NANOS = 5_000_000;
+
+    /**
+     * Latencies are compared per this many bytes, and smaller
+     * downloads count as this size, since their latency is dominated
+     * by the cost of each request rather than by their size.
+     */
+    private static final double sLATENCY_UNIT_BYTES = 64 * 1024;
+
+    /**
+     * The number of downloads after which the baseline latency is
+     * measured again, so it can adapt to hosts getting slower.
+     */
+    private static final int sBASELINE_WINDOW = 100;
+
+    /**
+     * The largest limit.
+     */
+    private final double mMaxLimit;
+
+    /**
+     * Guards the mutable fields.
+     */
+    private final ReentrantLock mLock = new ReentrantLock();
+
+    /**
+     * Signaled when a download finishes or the limit changes, so
+     * another download may be able to start.
+     */
+    private final Condition mSlotAvailable = mLock.newCondition();
+
+    /**
+     * The current limit, which is guarded by mLock (as are all the
+     * other mutable fields).
+     */
+    private double mLimit;
+
+    /**
+     * The number of downloads in flight.
+     */
+    private int mInFlight;
+
+    /**
+     * The slots of the downloads waiting via acquireAsync(), in the
+     * order they started waiting, which are granted before the
+     * threads waiting in acquire().
+     */
+    private final Queue<CompletableFuture<Long>> mWaiters =
+        new ArrayDeque<>();
+
+    /**
+     * The lowest latency per sLATENCY_UNIT_BYTES seen in the current
+     * window in nanoseconds, which is the baseline that other
+     * latencies are compared with.
+     */
+    private double mBaselineNanos = Double.MAX_VALUE;
+
+    /**
+     * The number of downloads in the current baseline window.
+     */
+    private int mWindowCount;
+
+    /**
+     * The number of times the limit was decreased.
+     */
+    private long mBackoffs;
+
+    /**
+     * The System.nanoTime() at which the limit was last decreased.
+     */
+    private long mLastBackoffNanos;
+
+    /**
+     * The largest limit reached.
+     */
+    private double mPeakLimit;
+
+    /**
+     * Method to return the one and only singleton uniqueInstance.
+     */
+    public static synchronized DownloadLimiter instance() {
+        if (mUniqueInstance == null)
+            mUniqueInstance =
+                new DownloadLimiter(Options.instance().getMaxDownloads());
+
+        return mUniqueInstance;
+    }
+
+    /**
+     * Make the constructor private for a singleton.
+     */
+    private DownloadLimiter(int maxLimit) {
+        mMaxLimit = maxLimit;
+        mLimit = Math.min(sINITIAL_LIMIT, maxLimit);
+        mPeakLimit = mLimit;
+    }
+
+    /**
+     * @return true if downloads are limited, else false.
+     */
+    public boolean enabled() {
+        return mMaxLimit > 0;
+    }
+
+    /**
+     * Block until another download is allowed to start.
+     *
+     * @return true if the download may start, or false if the
+     *         calling thread was interrupted, in which case it must
+     *         not start the download or call release()
+     */
+    public boolean acquire() {
+        mLock.lock();
+        try {
+            while (mInFlight >= (int) mLimit || !mWaiters.isEmpty())
+                mSlotAvailable.await();
+            mInFlight++;
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Allow another download to start without blocking the calling
+     * thread.
+     *
+     * @return A future that completes with the System.nanoTime() at
+     *         which the download may start.  If it's cancelled via
+     *         cancel() before then, the download must not start.
+     *         Otherwise, release() or releaseUnused() must be called
+     *         once the download finishes or if it never starts
+     */
+    public CompletableFuture<Long> acquireAsync() {
+        mLock.lock();
+        try {
+            if (mInFlight < (int) mLimit && mWaiters.isEmpty()) {
+                mInFlight++;
+                return CompletableFuture.completedFuture(System.nanoTime());
+            }
+
+            CompletableFuture<Long> slot = new CompletableFuture<>();
+            mWaiters.add(slot);
+            return slot;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Stop waiting for the {@code slot} returned by acquireAsync() if
+     * it hasn't been granted yet.  A slot that has already been
+     * granted is unaffected.
+     */
+    public void cancel(CompletableFuture<Long> slot) {
+        if (!slot.cancel(false))
+            return;
+
+        mLock.lock();
+        try {
+            // The threads in acquire() may be waiting for this slot
+            // to leave the queue.
+            mWaiters.remove(slot);
+            mSlotAvailable.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Note that a download started by acquire() or acquireAsync() has
+     * finished after {@code latencyNanos} and adjust the limit
+     * accordingly.
+     *
+     * @param bytes The number of bytes that were downloaded
+     * @param succeeded false if the download failed, which is
+     *                  treated as a sign of overload
+     */
+    public void release(long latencyNanos,
+                        long bytes,
+                        boolean succeeded) {
+        List<CompletableFuture<Long>> granted;
+        mLock.lock();
+        try {
+            update(latencyNanos, bytes, succeeded);
+            granted = grant();
+        } finally {
+            mLock.unlock();
+        }
+        start(granted);
+    }
+
+    /**
+     * Give back a slot granted by acquireAsync() whose download never
+     * started, without adjusting the limit.
+     */
+    public void releaseUnused() {
+        List<CompletableFuture<Long>> granted;
+        mLock.lock();
+        try {
+            mInFlight--;
+            granted = grant();
+        } finally {
+            mLock.unlock();
+        }
+        start(granted);
+    }
+
+    /**
+     * Grant slots to as many downloads waiting via acquireAsync() as
+     * the limit allows and wake the threads waiting in acquire(),
+     * which must be called with mLock held.
+     *
+     * @return The granted slots, which start() must complete once
+     *         mLock is released, so no download starts while it's
+     *         held
+     */
+    private List<CompletableFuture<Long>> grant() {
+        List<CompletableFuture<Long>> granted = new ArrayList<>();
+        while (mInFlight < (int) mLimit && !mWaiters.isEmpty()) {
+            CompletableFuture<Long> slot = mWaiters.poll();
+
+            // Skip slots whose wait was cancelled.
+            if (!slot.isDone()) {
+                mInFlight++;
+                granted.add(slot);
+            }
+        }
+
+        mSlotAvailable.signalAll();
+        return granted;
+    }
+
+    /**
+     * Complete the {@code granted} slots, so their downloads start.
+     */
+    private void start(List<CompletableFuture<Long>> granted) {
+        for (CompletableFuture<Long> slot : granted)
+            if (!slot.complete(System.nanoTime()))
+                // The wait was cancelled after the slot was granted,
+                // so give the slot back.
+                releaseUnused();
+    }
+
+    /**
+     * Note that a download of {@code bytes} finished after {@code
+     * latencyNanos} and adjust the limit accordingly, which must be
+     * called with mLock held.
+     */
+    private void update(long latencyNanos,
+                        long bytes,
+                        boolean succeeded) {
+        long now = System.nanoTime();
+
+        // Only grow the limit if it's actually being used.
+        boolean saturated = mInFlight >= (int) mLimit;
+        mInFlight--;
+
+        // Compare the latency per unit of size, so large downloads
+        // aren't compared with the latency of small ones.
+        double units = Math.max(1.0, bytes / sLATENCY_UNIT_BYTES);
+
+        if (++mWindowCount > sBASELINE_WINDOW) {
+            mWindowCount = 0;
+            mBaselineNanos = Double.MAX_VALUE;
+        }
+        if (succeeded)
+            mBaselineNanos = Math.min(mBaselineNanos, latencyNanos / units);
+
+        double expectedNanos = mBaselineNanos * units;
+        boolean overloaded = !succeeded
+            || (latencyNanos > expectedNanos * sLATENCY_TOLERANCE
+                && latencyNanos - expectedNanos > sLATENCY_SLACK_NANOS);
+
+        // Only downloads that started after the last decrease can
+        // decrease the limit again, i.e., at most once per round trip.
+        boolean startedAfterBackoff = mBackoffs == 0
+            || now - latencyNanos - mLastBackoffNanos > 0;
+
+        if (overloaded) {
+            if (startedAfterBackoff) {
+                // Multiplicative decrease.
+                mLimit = Math.max(sMIN_LIMIT, mLimit * sBACKOFF_RATIO);
+                mLastBackoffNanos = now;
+                mBackoffs++;
+            }
+        } else if (saturated) {
+            // Additive increase, i.e., about one per "round trip".
+            mLimit = Math.min(mMaxLimit, mLimit + 1 / mLimit);
+            mPeakLimit = Math.max(mPeakLimit, mLimit);
+        }
+    }
+
+    /**
+     * @return The current limit on concurrent downloads.
+     */
+    public int limit() {
+        mLock.lock();
+        try {
+            return (int) mLimit;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @return A summary of the limiter statistics.
+     */
+    @Override
+    public String toString() {
+        mLock.lock();
+        try {
+            return "DownloadLimiter: limit "
+                + (int) mLimit + " (peak "
+                + (int) mPeakLimit + ", max "
+                + (int) mMaxLimit + "), "
+                + mBackoffs + " backoff(s)";
+        } finally {
+            mLock.unlock();
+        }
+    }
+}
@@ -1,4 +1,4 @@
-package utils;
+package livelessons.utils;
 
 import java.util.function.Consumer;
 import java.util.function.Function;
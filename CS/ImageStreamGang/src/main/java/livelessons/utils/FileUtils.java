@@ -3,6 +3,7 @@ package livelessons.utils;
 import livelessons.filters.Filter;
 
 import java.io.File;
+import java.util.Arrays;
 
 /**
  * A Java utility class that provides helper methods for file
@@ -33,6 +34,12 @@ public final class FileUtils {
                 (new File(Options.instance().getDirectoryPath(),
                           filter.getName()).getAbsolutePath());
 
+        // Forget the deleted images, but not those of other filters.
+        FilterResultCache.instance().remove(Arrays
+                                            .stream(filters)
+                                            .map(Filter::getName)
+                                            .toList());
+
         System.out.println(deletedFiles
                            + " previously downloaded file(s) deleted");
         } catch (Exception ex) {
@@ -0,0 +1,347 @@
+package livelessons.utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * This class implements the Singleton pattern to keep track of which
+ * filtered images have already been stored in the file system.  Each
+ * stored image is recorded in an append-only index file that's keyed
+ * by the source URL and filter name and also records the hash of the
+ * source content, the name of the output file, the version of the
+ * filter, and the output settings it was stored with.  The index is
+ * loaded once at startup, so checking whether an image is cached is
+ * an in-memory lookup rather than a file system call.  The hash,
+ * version, and settings form a fingerprint that's used in
+ * incremental mode to only recompute stale images.  The index is
+ * compacted when it's loaded, so the file and the entries in memory
+ * are proportional to the number of stored images rather than to
+ * the number of times they were stored.
+ */
+public class FilterResultCache {
+    /** The singleton @a FilterResultCache instance. */
+    private static FilterResultCache mUniqueInstance = null;
+
+    /**
+     * Name of the index file in the image directory.
+     */
+    private static final String sINDEX_FILE_NAME = "cache.idx";
+
+    /**
+     * Separates the fields of each line in the index file.
+     */
+    private static final String sSEPARATOR = "\t";
+
+    /**
+     * Stands in for the hash of source content that wasn't hashed,
+     * i.e., that was stored outside incremental mode.
+     */
+    private static final String sNO_HASH = "-";
+
+    /**
+     * An entry in the index.
+     *
+     * @param contentHash The hash of the source content
+     * @param fileName The name of the file the filtered image is stored in
+     * @param filterVersion The version of the filter that stored it
+     * @param settings The output settings it was stored with
+     */
+    public record Entry(String contentHash,
+                        String fileName,
+                        int filterVersion,
+                        String settings) {
+        /**
+         * @return true if this entry was stored from {@code
+         *         contentHash} by version {@code filterVersion} of its
+         *         filter with the output {@code settings}, else false
+         */
+        public boolean matches(String contentHash,
+                               int filterVersion,
+                               String settings) {
+            return this.contentHash != null
+                && this.contentHash.equals(contentHash)
+                && this.filterVersion == filterVersion
+                && this.settings != null
+                && this.settings.equals(settings);
+        }
+    }
+
+    /**
+     * Maps each (filter name, URL) key to its index entry in the
+     * order the keys were first stored.  All accesses are guarded by
+     * "this".
+     */
+    private final Map<String, Entry> mEntries = new LinkedHashMap<>();
+
+    /**
+     * Keys that have been claimed by a thread in this process, but
+     * whose images haven't been stored yet.  All accesses are guarded
+     * by "this".
+     */
+    private final Set<String> mClaims = new HashSet<>();
+
+    /**
+     * The index file.
+     */
+    private final File mIndexFile;
+
+    /**
+     * Appends entries to the index file, which is opened lazily.
+     */
+    private BufferedWriter mIndexWriter;
+
+    /**
+     * Method to return the one and only singleton uniqueInstance.
+     */
+    public static synchronized FilterResultCache instance() {
+        if (mUniqueInstance == null)
+            mUniqueInstance = new FilterResultCache();
+
+        return mUniqueInstance;
+    }
+
+    /**
+     * Make the constructor private for a singleton.  It loads the
+     * index file.
+     */
+    private FilterResultCache() {
+        mIndexFile = new File(Options.instance().getDirectoryPath(),
+                              sINDEX_FILE_NAME);
+        load();
+    }
+
+    /**
+     * Load the entries from the index file, ignoring entries whose
+     * output files no longer exist and lines that were only partly
+     * written (e.g., due to a crash).  Later lines for the same key
+     * replace earlier ones, and lines written before filter versions
+     * or output settings were recorded are always stale.  If any
+     * lines were replaced or ignored, the index file is rewritten
+     * with only the loaded entries.
+     */
+    private void load() {
+        if (!mIndexFile.exists())
+            return;
+
+        int lines = 0;
+        try (BufferedReader reader =
+             new BufferedReader(new FileReader(mIndexFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                ++lines;
+                String[] fields = line.split(sSEPARATOR);
+                if (fields.length < 4 || fields.length > 6)
+                    continue;
+
+                File imageFile =
+                    new File(new File(Options.instance().getDirectoryPath(),
+                                      fields[0]),
+                             fields[3]);
+                if (imageFile.exists())
+                    mEntries.put(key(fields[0], fields[1]),
+                                 new Entry(fields[2].equals(sNO_HASH)
+                                           ? null
+                                           : fields[2],
+                                           fields[3],
+                                           fields.length >= 5
+                                           ? Integer.parseInt(fields[4])
+                                           : 0,
+                                           fields.length == 6
+                                           ? fields[5]
+                                           : null));
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.out.println("unable to load " + mIndexFile + " " + e);
+            return;
+        }
+
+        // Compact the index, so it doesn't keep growing as images
+        // are recomputed and appended again.
+        if (lines > mEntries.size())
+            rewrite();
+    }
+
+    /**
+     * Atomically check whether the image for {@code url} filtered by
+     * {@code filterName} is cached and, if not, claim it so no other
+     * thread processes it too.
+     *
+     * @return true if the image is already cached (or claimed), else
+     *         false
+     */
+    public synchronized boolean claim(URL url, String filterName) {
+        String key = key(filterName, url.toString());
+        return mEntries.get(key) != null || !mClaims.add(key);
+    }
+
+    /**
+     * Atomically check whether the image for {@code url} filtered by
+     * {@code filterName} is cached with the same fingerprint, i.e.,
+     * it was stored from {@code contentHash} by version {@code
+     * filterVersion} of the filter with the output {@code settings},
+     * and, if not, claim it so no other thread processes it too.
+     *
+     * @return true if the image is cached and current (or claimed),
+     *         else false
+     */
+    public synchronized boolean claim(URL url,
+                                      String filterName,
+                                      String contentHash,
+                                      int filterVersion,
+                                      String settings) {
+        String key = key(filterName, url.toString());
+        Entry entry = mEntries.get(key);
+        return (entry != null
+                && entry.matches(contentHash, filterVersion, settings))
+            || !mClaims.add(key);
+    }
+
+    /**
+     * Release a claim made by claim(), e.g., because the image
+     * couldn't be stored.
+     */
+    public synchronized void release(URL url, String filterName) {
+        mClaims.remove(key(filterName, url.toString()));
+    }
+
+    /**
+     * @return The entry for {@code url} filtered by {@code filterName}
+     *         or null if there's no such entry
+     */
+    public synchronized Entry get(URL url, String filterName) {
+        return mEntries.get(key(filterName, url.toString()));
+    }
+
+    /**
+     * Record that the image for {@code url} filtered by version
+     * {@code filterVersion} of {@code filterName} has been stored in
+     * {@code fileName} with the output {@code settings}.  This method
+     * must only be called after the file has been completely written.
+     */
+    public synchronized void publish(URL url,
+                                     String filterName,
+                                     String contentHash,
+                                     String fileName,
+                                     int filterVersion,
+                                     String settings) throws IOException {
+        if (mIndexWriter == null)
+            mIndexWriter = new BufferedWriter(new FileWriter(mIndexFile,
+                                                             true));
+
+        String key = key(filterName, url.toString());
+        Entry entry =
+            new Entry(contentHash, fileName, filterVersion, settings);
+
+        // Write a complete line and flush it, so a crash leaves at
+        // most one partial line, which load() ignores.
+        mIndexWriter.write(line(key, entry));
+        mIndexWriter.newLine();
+        mIndexWriter.flush();
+
+        // The entry now stands in for the claim.
+        mEntries.put(key, entry);
+        mClaims.remove(key);
+    }
+
+    /**
+     * Forget the claims made in this process (e.g., before running
+     * another strategy), while keeping the stored entries.
+     */
+    public synchronized void releaseAll() {
+        mClaims.clear();
+    }
+
+    /**
+     * Remove the entries and claims of the filters named {@code
+     * filterNames} (e.g., because their output directories were
+     * deleted) and rewrite the index file without them, while keeping
+     * the entries of all other filters.
+     */
+    public synchronized void remove(Collection<String> filterNames) {
+        Predicate<String> removed = key ->
+            filterNames.contains(key.substring(0, key.indexOf(sSEPARATOR)));
+
+        mEntries.keySet().removeIf(removed);
+        mClaims.removeIf(removed);
+        rewrite();
+    }
+
+    /**
+     * Replace the index file with one that only contains the current
+     * entries.  It's written to a temporary file that's then renamed,
+     * so a crash leaves either the old or the new index.
+     */
+    private void rewrite() {
+        Path tempFile = null;
+        try {
+            if (mIndexWriter != null) {
+                mIndexWriter.close();
+                mIndexWriter = null;
+            }
+
+            if (mEntries.isEmpty()) {
+                Files.deleteIfExists(mIndexFile.toPath());
+                return;
+            }
+
+            tempFile = Files.createTempFile(mIndexFile.getParentFile().toPath(),
+                                            sINDEX_FILE_NAME,
+                                            ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(tempFile)) {
+                for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+                    writer.write(line(entry.getKey(), entry.getValue()));
+                    writer.newLine();
+                }
+            }
+
+            Files.move(tempFile,
+                       mIndexFile.toPath(),
+                       StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.out.println("unable to rewrite " + mIndexFile + " " + e);
+            try {
+                if (tempFile != null)
+                    Files.deleteIfExists(tempFile);
+            } catch (IOException ex) {
+                // Swallow exceptions.
+            }
+        }
+    }
+
+    /**
+     * @return The line of the index file that records the {@code
+     *         entry} for {@code key}.
+     */
+    private static String line(String key, Entry entry) {
+        return String.join(sSEPARATOR,
+                           key,
+                           entry.contentHash() == null
+                           ? sNO_HASH
+                           : entry.contentHash(),
+                           entry.fileName(),
+                           Integer.toString(entry.filterVersion()),
+                           entry.settings());
+    }
+
+    /**
+     * @return The key for a URL filtered by the given filter.
+     */
+    private static String key(String filterName, String url) {
+        return filterName + sSEPARATOR + url;
+    }
+}
@@ -3,7 +3,13 @@ package livelessons.utils;
 import livelessons.filters.Filter;
 import livelessons.platspec.ImageBase;
 
+import java.awt.Dimension;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Set;
 
 /**
  * Stores platform-independent meta-data about an Image and also
@@ -23,6 +29,24 @@ public class Image
      */
     private String mFilterName;
     
+    /**
+     * The hash of the raw content this Image was decoded from, which
+     * is shared by all filtered versions of this Image.
+     */
+    private String mContentHash;
+
+    /**
+     * Keeps track of whether the raster of this Image was borrowed
+     * from the RasterPool and can be returned to it.
+     */
+    private boolean mRecyclable;
+
+    /**
+     * The names of the filters whose stored images of this Image are
+     * stale, or null if they all are.
+     */
+    private Set<String> mStaleFilters;
+
     /**
      * Keeps track of whether operations on this Image succeed.
      */
@@ -31,8 +55,8 @@ public class Image
     /**
      * Dimensions representing how large the scaled image should be.
      */
-    private static final int IMAGE_WIDTH = 250;
-    private static final int IMAGE_HEIGHT = 250;
+    public static final int IMAGE_WIDTH = 250;
+    public static final int IMAGE_HEIGHT = 250;
 
     /**
      * Construct an Image from a byte array of @a imageData
@@ -46,11 +70,33 @@ public class Image
         // Initialize other data members.
         mFilterName = null;
         mSucceeded = true;
+        mContentHash = incrementalHash(imageData);
         
         // Decode the imageData into a Bitmap.
         setImage(imageData);
     }
 
+    /**
+     * Construct an Image from a ByteBuffer of @a imageData downloaded
+     * from a URL @a source without copying the data.  The @a
+     * contentHash is the hash() of the @a imageData, or null if it
+     * wasn't hashed, so the content isn't hashed again.
+     */
+    public Image(URL sourceURL,
+                 ByteBuffer imageData,
+                 String contentHash) {
+        // Set the URL.
+        mSourceUrl = sourceURL;
+
+        // Initialize other data members.
+        mFilterName = null;
+        mSucceeded = true;
+        mContentHash = contentHash;
+
+        // Decode the imageData into a Bitmap.
+        setImage(imageData);
+    }
+
     /**
      * Construct an Image from an @a image created from URL @a source.
      */
@@ -96,6 +142,55 @@ public class Image
         return mFilterName;
     }
 
+    /**
+     * Sets the hash of the raw content this Image was decoded from.
+     */
+    public void setContentHash(String contentHash) {
+        mContentHash = contentHash;
+    }
+
+    /**
+     * Returns the hash of the raw content this Image was decoded
+     * from.
+     */
+    public String getContentHash() {
+        return mContentHash;
+    }
+
+    /**
+     * Sets whether the raster of this Image can be returned to the
+     * RasterPool.
+     */
+    public void setRecyclable(boolean recyclable) {
+        mRecyclable = recyclable;
+    }
+
+    /**
+     * Returns true if the raster of this Image can be returned to the
+     * RasterPool, else false.
+     */
+    public boolean isRecyclable() {
+        return mRecyclable;
+    }
+
+    /**
+     * Sets the names of the filters whose stored images of this Image
+     * are stale (e.g., in incremental mode), so the other filters
+     * skip it.  A null @a staleFilters means they all are stale.
+     */
+    public void setStaleFilters(Set<String> staleFilters) {
+        mStaleFilters = staleFilters;
+    }
+
+    /**
+     * Returns true if the stored image of this Image filtered by @a
+     * filter is stale, i.e., it must be computed, else false.
+     */
+    public boolean isStale(Filter filter) {
+        return mStaleFilters == null
+            || mStaleFilters.contains(filter.getName());
+    }
+
     /**
      * Sets whether operations on the Image succeeded or failed.
      */
@@ -128,4 +223,46 @@ public class Image
             (mSourceUrl.getFile().lastIndexOf('.') + 1);
         return format.equalsIgnoreCase("jpeg") ? "jpg" : format;
     }
+
+    /**
+     * Returns the scaled image dimensions if images are decoded as
+     * thumbnails (i.e., -e THUMBNAIL with the ResizeFilter), else
+     * null.
+     */
+    @Override
+    protected Dimension getDecodeSize() {
+        return Options.instance().getDecodeMode() == Options.DecodeMode.THUMBNAIL
+            ? new Dimension(IMAGE_WIDTH, IMAGE_HEIGHT)
+            : null;
+    }
+
+    /**
+     * Returns the SHA-256 hash of {@code imageData} as a hex string
+     * in incremental mode, which is the only mode that uses it, else
+     * null, so other runs don't pay for a pass over every byte.
+     */
+    private static String incrementalHash(byte[] imageData) {
+        return imageData != null && Options.instance().incrementalEnabled()
+            ? hash(ByteBuffer.wrap(imageData))
+            : null;
+    }
+
+    /**
+     * Returns the SHA-256 hash of the remaining bytes of {@code
+     * imageData} as a hex string without changing its position,
+     * which is the content hash of an Image decoded from it.
+     */
+    public static String hash(ByteBuffer imageData) {
+        if (imageData == null)
+            return null;
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(imageData.duplicate());
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform must support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
 }
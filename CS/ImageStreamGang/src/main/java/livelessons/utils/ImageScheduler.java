@@ -0,0 +1,459 @@
+package livelessons.utils;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * This class implements the Singleton pattern to schedule the images
+ * of each cycle by their estimated cost, which is shared by the
+ * ImageStreamParallel and CompletableFuture strategies.  A cycle
+ * can't finish before its most expensive image, so starting that
+ * image last makes it a straggler that keeps the other threads idle.
+ * The scheduler therefore orders the URLs largest-first, splits them
+ * so each parallel task gets about the same total cost, and has
+ * ParallelRows split oversized images into bands, so a single huge
+ * image is filtered by all the cores.  The cost of an image is its
+ * number of pixels, which is read from the image header of local
+ * URLs and estimated from the Content-Length of HTTP URLs.  Once an
+ * image has been decoded its actual size is used instead.  At most
+ * sMAX_ENTRIES sizes and Content-Lengths are remembered, in
+ * least-recently-used order.  The scheduler is enabled via Options.
+ */
+public class ImageScheduler {
+    /** The singleton @a ImageScheduler instance. */
+    private static ImageScheduler mUniqueInstance = null;
+
+    /**
+     * Images with at least this many pixels are split into row bands
+     * even if row-band mode isn't enabled in Options.
+     */
+    private static final long sOVERSIZED_PIXELS = 1 << 22;
+
+    /**
+     * The number of pixels per byte of content that's assumed before
+     * any HTTP image has been decoded.
+     */
+    private static final double sDEFAULT_PIXELS_PER_BYTE = 4.0;
+
+    /**
+     * The maximum number of image sizes (and of Content-Lengths)
+     * that are remembered.
+     */
+    private static final int sMAX_ENTRIES = 100_000;
+
+    /**
+     * Controls whether images are scheduled by cost.
+     */
+    private final boolean mEnabled;
+
+    /**
+     * Maps each URL to the number of pixels in its image, which is
+     * known once its header has been read or it has been decoded.
+     * URLs are keyed by their string form, since URL.equals() and
+     * URL.hashCode() may resolve host names.  The entries are kept
+     * in least-recently-used order and all accesses are guarded by
+     * "this".
+     */
+    private final LinkedHashMap<String, Long> mPixels =
+        new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Maps each HTTP URL whose image size isn't known yet to its
+     * Content-Length.  The entries are kept in least-recently-used
+     * order and all accesses are guarded by "this".
+     */
+    private final LinkedHashMap<String, Long> mContentLengths =
+        new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Counts the pixels of decoded images that were downloaded via
+     * HTTP, which is used to convert Content-Lengths to pixels.
+     */
+    private final LongAdder mDecodedPixels = new LongAdder();
+
+    /**
+     * Counts the bytes of decoded images that were downloaded via
+     * HTTP.
+     */
+    private final LongAdder mDecodedBytes = new LongAdder();
+
+    /**
+     * Counts the costs that were read from image headers.
+     */
+    private final LongAdder mHeaderEstimates = new LongAdder();
+
+    /**
+     * Counts the costs that were estimated from Content-Lengths.
+     */
+    private final LongAdder mLengthEstimates = new LongAdder();
+
+    /**
+     * Counts the cycles that were scheduled.
+     */
+    private final LongAdder mCycles = new LongAdder();
+
+    /**
+     * Method to return the one and only singleton uniqueInstance.
+     */
+    public static synchronized ImageScheduler instance() {
+        if (mUniqueInstance == null)
+            mUniqueInstance =
+                new ImageScheduler(Options.instance().schedulingEnabled());
+
+        return mUniqueInstance;
+    }
+
+    /**
+     * Make the constructor private for a singleton.
+     */
+    private ImageScheduler(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    /**
+     * @return true if images are scheduled by cost, else false.
+     */
+    public boolean enabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Return the {@code urls} ordered by decreasing estimated cost,
+     * or the {@code urls} themselves if scheduling is disabled.  URLs
+     * with the same cost keep their relative order.
+     */
+    public List<URL> schedule(List<URL> urls) {
+        if (!mEnabled)
+            return urls;
+
+        mCycles.increment();
+
+        long[] costs = urls
+            // Estimate the costs concurrently, since it may read
+            // the image headers.
+            .parallelStream()
+
+            // Estimate the cost of each URL.
+            .mapToLong(this::cost)
+
+            // Collect the costs in the same order as the URLs.
+            .toArray();
+
+        return IntStream
+            // Iterate through the indices of the URLs.
+            .range(0, urls.size())
+
+            // Convert the indices to Integers so they can be sorted
+            // by a Comparator.
+            .boxed()
+
+            // Sort the indices by decreasing cost.
+            .sorted(Comparator.comparingLong(i -> -costs[i]))
+
+            // Convert the indices back to URLs.
+            .map(urls::get)
+
+            // Collect the URLs into a list.
+            .toList();
+    }
+
+    /**
+     * Return a parallel stream over the {@code urls}, which were
+     * returned by schedule().  If scheduling is enabled, every split
+     * deals out the URLs alternately to both halves, so the halves
+     * have about the same cost and each starts with its largest
+     * image, rather than one half getting all the largest images.
+     */
+    public Stream<URL> parallelStream(List<URL> urls) {
+        if (!mEnabled)
+            return urls.parallelStream();
+
+        return StreamSupport.stream(new InterleavedSpliterator(urls, 0, 1),
+                                    true);
+    }
+
+    /**
+     * @return true if a {@code width} by {@code height} image should
+     * be split into row bands to keep all the cores busy, else false.
+     */
+    public boolean isOversized(int width, int height) {
+        return mEnabled
+            && (long) width * height >= sOVERSIZED_PIXELS;
+    }
+
+    /**
+     * Note that the {@code image} was decoded from {@code bytes} of
+     * content downloaded from {@code url}, so its actual size is used
+     * to schedule it from now on.
+     */
+    public void record(URL url,
+                       long bytes,
+                       BufferedImage image) {
+        if (!mEnabled || image == null)
+            return;
+
+        long pixels = (long) image.getWidth() * image.getHeight();
+        synchronized (this) {
+            put(mPixels, url.toString(), pixels);
+            if (isHttp(url))
+                mContentLengths.remove(url.toString());
+        }
+
+        if (isHttp(url) && bytes > 0) {
+            mDecodedPixels.add(pixels);
+            mDecodedBytes.add(bytes);
+        }
+    }
+
+    /**
+     * @return The estimated cost of the image at {@code url} in
+     * pixels, or 0 if it's unknown.  The image header or
+     * Content-Length is requested outside the lock, and in a managed
+     * block so the common fork-join pool can compensate for the
+     * blocked thread.  If two threads request the same URL at once,
+     * the first result that's remembered is used.
+     */
+    private long cost(URL url) {
+        String key = url.toString();
+
+        synchronized (this) {
+            Long pixels = mPixels.get(key);
+            if (pixels != null)
+                return pixels;
+        }
+
+        if (isHttp(url)) {
+            Long length;
+            synchronized (this) {
+                length = mContentLengths.get(key);
+            }
+            if (length == null) {
+                long requested =
+                    BlockingTask.callInManagedBlock(() -> contentLength(url));
+                synchronized (this) {
+                    length = putIfAbsent(mContentLengths, key, requested);
+                }
+            }
+            return (long) (length * pixelsPerByte());
+        }
+
+        long pixels =
+            BlockingTask.callInManagedBlock(() -> headerPixels(url));
+        synchronized (this) {
+            return putIfAbsent(mPixels, key, pixels);
+        }
+    }
+
+    /**
+     * Add {@code value} for {@code key} to {@code map}, evicting the
+     * least recently used entries if there are more than
+     * sMAX_ENTRIES, which must be called with "this" locked.
+     */
+    private static void put(LinkedHashMap<String, Long> map,
+                            String key,
+                            long value) {
+        map.put(key, value);
+
+        Iterator<String> eldest = map.keySet().iterator();
+        while (map.size() > sMAX_ENTRIES) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Add {@code value} for {@code key} to {@code map} like put(),
+     * unless {@code map} already has a value for {@code key}, which
+     * must be called with "this" locked.
+     *
+     * @return The value that's now in {@code map} for {@code key}
+     */
+    private static long putIfAbsent(LinkedHashMap<String, Long> map,
+                                    String key,
+                                    long value) {
+        Long previous = map.get(key);
+        if (previous != null)
+            return previous;
+
+        put(map, key, value);
+        return value;
+    }
+
+    /**
+     * @return The number of pixels per byte of the HTTP images that
+     * were decoded so far.
+     */
+    private double pixelsPerByte() {
+        long bytes = mDecodedBytes.sum();
+        return bytes == 0
+            ? sDEFAULT_PIXELS_PER_BYTE
+            : (double) mDecodedPixels.sum() / bytes;
+    }
+
+    /**
+     * @return The Content-Length of {@code url}, which is requested
+     * via HEAD so the content isn't downloaded, or 0 if it's unknown.
+     */
+    private long contentLength(URL url) {
+        mLengthEstimates.increment();
+        try {
+            URLConnection connection = url.openConnection();
+            if (connection instanceof HttpURLConnection httpConnection)
+                httpConnection.setRequestMethod("HEAD");
+            try {
+                return Math.max(0, connection.getContentLengthLong());
+            } finally {
+                if (connection instanceof HttpURLConnection httpConnection)
+                    httpConnection.disconnect();
+            }
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return The number of pixels of the image at {@code url}, which
+     * is read from the image header without decoding the image, or 0
+     * if it can't be read.
+     */
+    private long headerPixels(URL url) {
+        mHeaderEstimates.increment();
+        try (InputStream stream = url.openStream();
+             ImageInputStream imageStream =
+                 new MemoryCacheImageInputStream(stream)) {
+            Iterator<ImageReader> readers =
+                ImageIO.getImageReaders(imageStream);
+            if (!readers.hasNext())
+                return 0;
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(imageStream, true, true);
+                return (long) reader.getWidth(0) * reader.getHeight(0);
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return true if {@code url} is downloaded via HTTP, else false.
+     */
+    private static boolean isHttp(URL url) {
+        return "http".equals(url.getProtocol())
+            || "https".equals(url.getProtocol());
+    }
+
+    /**
+     * @return A summary of the scheduler statistics.
+     */
+    @Override
+    public synchronized String toString() {
+        return "ImageScheduler: "
+            + mCycles.sum() + " cycle(s), "
+            + mHeaderEstimates.sum() + " header estimate(s), "
+            + mLengthEstimates.sum() + " Content-Length estimate(s), "
+            + mPixels.size() + " image size(s) known";
+    }
+
+    /**
+     * A Spliterator over every {@code stride}th element of a list,
+     * starting at {@code origin}.  Splitting it doubles the stride,
+     * so each half gets every other remaining element.  Since the
+     * halves aren't a prefix and a suffix, it isn't ORDERED.
+     */
+    private static class InterleavedSpliterator
+            implements Spliterator<URL> {
+        /**
+         * The list that's traversed.
+         */
+        private final List<URL> mList;
+
+        /**
+         * The index of the next element.
+         */
+        private int mIndex;
+
+        /**
+         * The distance between elements.
+         */
+        private int mStride;
+
+        /**
+         * Constructor initializes the fields.
+         */
+        InterleavedSpliterator(List<URL> list,
+                               int origin,
+                               int stride) {
+            mList = list;
+            mIndex = origin;
+            mStride = stride;
+        }
+
+        /**
+         * Pass the next element to {@code action}, if there is one.
+         */
+        @Override
+        public boolean tryAdvance(Consumer<? super URL> action) {
+            if (mIndex >= mList.size())
+                return false;
+
+            action.accept(mList.get(mIndex));
+            mIndex += mStride;
+            return true;
+        }
+
+        /**
+         * Give every other remaining element to a new Spliterator.
+         */
+        @Override
+        public Spliterator<URL> trySplit() {
+            if (estimateSize() < 2)
+                return null;
+
+            Spliterator<URL> odd =
+                new InterleavedSpliterator(mList, mIndex + mStride, mStride * 2);
+            mStride *= 2;
+            return odd;
+        }
+
+        /**
+         * @return The exact number of remaining elements.
+         */
+        @Override
+        public long estimateSize() {
+            int remaining = mList.size() - mIndex;
+            return remaining <= 0
+                ? 0
+                : (remaining + mStride - 1) / mStride;
+        }
+
+        /**
+         * @return The characteristics of this Spliterator.
+         */
+        @Override
+        public int characteristics() {
+            return SIZED | SUBSIZED | IMMUTABLE | NONNULL;
+        }
+    }
+}
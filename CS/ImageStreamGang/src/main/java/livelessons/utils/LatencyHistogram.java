@@ -0,0 +1,161 @@
+package livelessons.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of latencies in nanoseconds, in the style of
+ * an HDR histogram.  Values are counted in log-linear buckets, i.e.,
+ * each power of two is split into 16 equal sub-buckets, so recording
+ * a value is a few bit operations and an atomic increment and every
+ * percentile is accurate to within about 6%, regardless of how many
+ * values are recorded or how large they are.
+ */
+public class LatencyHistogram {
+    /**
+     * The number of bits used to select a sub-bucket within each
+     * power of two.
+     */
+    private static final int sSUB_BUCKET_BITS = 4;
+
+    /**
+     * The number of sub-buckets within each power of two.
+     */
+    private static final int sSUB_BUCKETS = 1 << sSUB_BUCKET_BITS;
+
+    /**
+     * The total number of buckets, which covers all positive longs.
+     */
+    private static final int sBUCKETS =
+        sSUB_BUCKETS * (Long.SIZE - sSUB_BUCKET_BITS);
+
+    /**
+     * The number of values recorded in each bucket.
+     */
+    private final AtomicLongArray mCounts = new AtomicLongArray(sBUCKETS);
+
+    /**
+     * The number of values recorded.
+     */
+    private final LongAdder mCount = new LongAdder();
+
+    /**
+     * The sum of the values recorded.
+     */
+    private final LongAdder mSum = new LongAdder();
+
+    /**
+     * The largest value recorded.
+     */
+    private final LongAccumulator mMax = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Record a latency of {@code nanos}, where negative values are
+     * recorded as 0.
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        mCounts.incrementAndGet(bucketOf(value));
+        mCount.increment();
+        mSum.add(value);
+        mMax.accumulate(value);
+    }
+
+    /**
+     * @return The number of values recorded.
+     */
+    public long count() {
+        return mCount.sum();
+    }
+
+    /**
+     * @return The mean of the values recorded in nanoseconds.
+     */
+    public double mean() {
+        long count = count();
+        return count == 0 ? 0 : (double) mSum.sum() / count;
+    }
+
+    /**
+     * @return The largest value recorded in nanoseconds.
+     */
+    public long max() {
+        return mMax.get();
+    }
+
+    /**
+     * @return The value in nanoseconds that {@code percentile} (0-100)
+     *         percent of the recorded values are less than or equal
+     *         to, which is the upper bound of its bucket.
+     */
+    public long percentile(double percentile) {
+        long count = count();
+        if (count == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int bucket = 0; bucket < sBUCKETS; bucket++) {
+            seen += mCounts.get(bucket);
+            if (seen >= rank)
+                return Math.min(upperBoundOf(bucket), max());
+        }
+        return max();
+    }
+
+    /**
+     * Forget all the recorded values.
+     */
+    public void reset() {
+        for (int bucket = 0; bucket < sBUCKETS; bucket++)
+            mCounts.set(bucket, 0);
+        mCount.reset();
+        mSum.reset();
+        mMax.reset();
+    }
+
+    /**
+     * @return A summary of the recorded values in milliseconds.
+     */
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%.3fms p50=%.3fms "
+                             + "p90=%.3fms p99=%.3fms max=%.3fms",
+                             count(),
+                             mean() / 1e6,
+                             percentile(50) / 1e6,
+                             percentile(90) / 1e6,
+                             percentile(99) / 1e6,
+                             max() / 1e6);
+    }
+
+    /**
+     * @return The bucket that {@code value} is counted in.
+     */
+    private static int bucketOf(long value) {
+        // Small values each have their own bucket.
+        if (value < sSUB_BUCKETS)
+            return (int) value;
+
+        // Otherwise, the position of the highest bit selects the
+        // power of two and the next bits select the sub-bucket.
+        int shift = Long.SIZE - sSUB_BUCKET_BITS - 1
+            - Long.numberOfLeadingZeros(value);
+        return (shift + 1) * sSUB_BUCKETS
+            + (int) (value >>> shift) - sSUB_BUCKETS;
+    }
+
+    /**
+     * @return The largest value that's counted in {@code bucket}.
+     */
+    private static long upperBoundOf(int bucket) {
+        if (bucket < sSUB_BUCKETS)
+            return bucket;
+
+        int shift = bucket / sSUB_BUCKETS - 1;
+        long lowerBound =
+            (long) (bucket % sSUB_BUCKETS + sSUB_BUCKETS) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+}
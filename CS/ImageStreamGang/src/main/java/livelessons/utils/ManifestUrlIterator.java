@@ -0,0 +1,138 @@
+package livelessons.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An Iterator that lazily reads the URLs in a newline-delimited
+ * manifest file and returns them in Lists of (at most) a given size,
+ * each of which is processed as one ImageStreamGang cycle.  Only one
+ * cycle of URLs is in memory at a time, so iteration starts
+ * immediately and uses constant memory regardless of how long the
+ * manifest is.  Blank lines and lines starting with '#' are ignored,
+ * lines without a scheme are treated as local file paths, and
+ * malformed URLs are skipped.
+ */
+public class ManifestUrlIterator
+       implements Iterator<List<URL>> {
+    /**
+     * Reads the manifest, which is set to null once it's closed.
+     */
+    private BufferedReader mReader;
+
+    /**
+     * The maximum number of URLs in each cycle.
+     */
+    private final int mCycleSize;
+
+    /**
+     * The next cycle of URLs, or null if it hasn't been read yet.
+     */
+    private List<URL> mNextCycle;
+
+    /**
+     * Constructor opens the @a manifest, whose URLs are returned in
+     * Lists of at most @a cycleSize URLs.
+     */
+    public ManifestUrlIterator(Path manifest,
+                               int cycleSize) throws IOException {
+        if (cycleSize <= 0)
+            throw new IllegalArgumentException("cycleSize must be positive");
+
+        mReader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8);
+        mCycleSize = cycleSize;
+    }
+
+    /**
+     * @return true if the manifest has more URLs, else false.
+     */
+    @Override
+    public boolean hasNext() {
+        if (mNextCycle == null)
+            mNextCycle = readCycle();
+        return !mNextCycle.isEmpty();
+    }
+
+    /**
+     * @return The next List of URLs in the manifest.
+     */
+    @Override
+    public List<URL> next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        List<URL> cycle = mNextCycle;
+        mNextCycle = null;
+        return cycle;
+    }
+
+    /**
+     * Read up to mCycleSize URLs from the manifest, closing it when
+     * the end is reached.
+     *
+     * @return A List of URLs, which is empty at the end of the manifest
+     */
+    private List<URL> readCycle() {
+        List<URL> cycle = new ArrayList<>(mCycleSize);
+        if (mReader == null)
+            return cycle;
+
+        try {
+            String line;
+            while (cycle.size() < mCycleSize
+                   && (line = mReader.readLine()) != null) {
+                URL url = toUrl(line.strip());
+                if (url != null)
+                    cycle.add(url);
+            }
+
+            if (cycle.size() < mCycleSize) {
+                mReader.close();
+                mReader = null;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return cycle;
+    }
+
+    /**
+     * @return The URL on a @a line of the manifest, or null if the
+     *         line is blank, a comment, or malformed
+     */
+    private static URL toUrl(String line) {
+        if (line.isEmpty() || line.startsWith("#"))
+            return null;
+
+        try {
+            // Convert local paths via Path, since URI.create() rejects
+            // paths containing spaces and other illegal characters.
+            return hasScheme(line)
+                ? URI.create(line).toURL()
+                : Path.of(line).toUri().toURL();
+        } catch (IllegalArgumentException | MalformedURLException e) {
+            System.out.println("Invalid URL " + line);
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the @a line starts with a URI scheme, else
+     *         false.  Single letters are drive letters of Windows
+     *         paths (e.g., "C:\images"), not schemes.
+     */
+    private static boolean hasScheme(String line) {
+        return line.matches("[A-Za-z][A-Za-z0-9+.-]+:.*");
+    }
+}
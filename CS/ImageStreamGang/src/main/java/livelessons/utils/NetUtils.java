@@ -1,11 +1,22 @@
 package livelessons.utils;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URISyntaxException;
 import java.net.URL;
-
-import static livelessons.platspec.PlatSpec.getInputStream;
+import java.net.URLConnection;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 /**
  * Provides some general utility helper methods for network operations.
@@ -21,6 +32,12 @@ public final class NetUtils {
      */
     private static final String TAG = NetUtils.class.getName();
 
+    /**
+     * Local files at least this large are memory-mapped rather than
+     * read, since mapping small files costs more than copying them.
+     */
+    private static final long sMIN_MAPPED_SIZE = 256 * 1024;
+
     /**
      * A utility class should always define a private constructor.
      */
@@ -29,39 +46,204 @@ public final class NetUtils {
     
     /**
      * Download the contents found at the given URL and return them as
-     * a raw byte array.
+     * a raw byte array.  The array is the one downloadContentBuffer()
+     * filled whenever possible, so the content isn't copied again.
      */
     public static byte[] downloadContent(URL url) {
-        // The size of the image downloading buffer.
-        final int BUFFER_SIZE = 4096;
-
-        // Creates a new ByteArrayOutputStream to write the downloaded
-        // contents to a byte array, which is a generic form of the
-        // image.
-        ByteArrayOutputStream ostream =
-            new ByteArrayOutputStream();
-        
-        // This is the buffer in which the input data will be stored
-        byte[] readBuffer = new byte[BUFFER_SIZE];
-        int bytes;
-        
-        // Creates an InputStream from the inputUrl from which to read
-    	// the image data.
-        try (InputStream istream = getInputStream(url)) {
-            // While there is unread data from the inputStream,
-            // continue writing data to the byte array.
-            while ((bytes = istream.read(readBuffer)) > 0) 
-                ostream.write(readBuffer, 0, bytes);
-
-            return ostream.toByteArray();
-        } catch (IOException e) {
-            // "Try-with-resources" will clean up the istream
-            // automatically.
+        ByteBuffer buffer = downloadContentBuffer(url);
+        if (buffer == null)
+            return null;
+
+        if (buffer.hasArray()
+            && buffer.arrayOffset() == 0
+            && buffer.remaining() == buffer.array().length)
+            return buffer.array();
+
+        // Memory-mapped content must be copied into an array.
+        byte[] content = new byte[buffer.remaining()];
+        buffer.duplicate().get(content);
+        return content;
+    }
+
+    /**
+     * Download the contents found at the given URL into a right-sized
+     * ByteBuffer without any intermediate copies.  Local files
+     * ("file:" URLs) are read via a FileChannel, and large ones are
+     * memory-mapped.  For other URLs (e.g., jar resources and HTTP)
+     * the buffer is pre-sized from the content length reported by the
+     * connection, so the data is copied exactly once from the stream.
+     *
+     * @return A ByteBuffer positioned at the start of the content, or
+     *         null if the content couldn't be downloaded
+     */
+    public static ByteBuffer downloadContentBuffer(URL url) {
+        try {
+            if ("file".equals(url.getProtocol()))
+                return readFile(Path.of(url.toURI()));
+
+            URLConnection connection = url.openConnection();
+            long length = connection.getContentLengthLong();
+            if (length > Integer.MAX_VALUE)
+                throw new IOException(url + " is too large");
+
+            try (InputStream istream = connection.getInputStream()) {
+                // Read exactly the announced number of bytes, or
+                // everything if the length isn't known.
+                byte[] content = length >= 0
+                    ? istream.readNBytes((int) length)
+                    : istream.readAllBytes();
+
+                // readNBytes() stops early if the connection is closed
+                // before all the announced bytes arrive.
+                if (length >= 0 && content.length < length)
+                    throw new IOException(url + " was truncated after "
+                                          + content.length + " of "
+                                          + length + " bytes");
+                return ByteBuffer.wrap(content);
+            }
+        } catch (IOException | URISyntaxException e) {
             e.printStackTrace();
             return null;
         }
     }
 
+    /**
+     * Read the file at {@code path} into a ByteBuffer, mapping it
+     * into memory if it's large.  Files over 2 GB don't fit in a
+     * ByteBuffer, so they can't be read.
+     */
+    private static ByteBuffer readFile(Path path) throws IOException {
+        try (FileChannel channel =
+             FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException(path + " is too large");
+
+            if (size >= sMIN_MAPPED_SIZE)
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()
+                   && channel.read(buffer) >= 0)
+                continue;
+            return buffer.flip();
+        }
+    }
+
+    /**
+     * Download the contents found at the given URL into a right-sized
+     * ByteBuffer without blocking the calling thread.  Local files
+     * ("file:" URLs) are read via an AsynchronousFileChannel and HTTP
+     * URLs via HttpClient.sendAsync().  Other URLs (e.g., jar
+     * resources) have no non-blocking API, so they are downloaded by
+     * downloadContentBuffer() on the {@code blockingExecutor}.
+     *
+     * @return A future that's completed with a ByteBuffer positioned
+     *         at the start of the content, or exceptionally if the
+     *         content couldn't be downloaded
+     */
+    public static CompletableFuture<ByteBuffer> downloadContentBufferAsync(URL url,
+                                                                           Executor blockingExecutor) {
+        try {
+            switch (url.getProtocol()) {
+            case "file":
+                return readFileAsync(Path.of(url.toURI()));
+            case "http":
+            case "https":
+                return HttpClientHolder.sCLIENT
+                    .sendAsync(HttpRequest.newBuilder(url.toURI()).build(),
+                               HttpResponse.BodyHandlers.ofByteArray())
+                    .thenApply(response -> {
+                            if (response.statusCode() != 200)
+                                throw new CompletionException
+                                    (new IOException("HTTP status "
+                                                     + response.statusCode()
+                                                     + " for " + url));
+                            return ByteBuffer.wrap(response.body());
+                        });
+            default:
+                return CompletableFuture
+                    .supplyAsync(() -> downloadContentBuffer(url),
+                                 blockingExecutor);
+            }
+        } catch (IOException | URISyntaxException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Lazily creates the HttpClient shared by all asynchronous
+     * downloads, so it's only created if it's used.
+     */
+    private static class HttpClientHolder {
+        static final HttpClient sCLIENT = HttpClient
+            .newBuilder()
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
+    }
+
+    /**
+     * Read the file at {@code path} into a ByteBuffer asynchronously.
+     */
+    private static CompletableFuture<ByteBuffer> readFileAsync(Path path)
+        throws IOException {
+        AsynchronousFileChannel channel =
+            AsynchronousFileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException(path + " is too large");
+
+            CompletableFuture<ByteBuffer> future = new CompletableFuture<>();
+            readFully(channel, ByteBuffer.allocate((int) size), future);
+            return future;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Keep reading from {@code channel} until {@code buffer} is full
+     * (or the end of the file is reached) and then close the channel
+     * and complete the {@code future} with the buffer.
+     */
+    private static void readFully(AsynchronousFileChannel channel,
+                                  ByteBuffer buffer,
+                                  CompletableFuture<ByteBuffer> future) {
+        channel.read(buffer, buffer.position(), null,
+                     new CompletionHandler<Integer, Void>() {
+                         @Override
+                         public void completed(Integer bytesRead,
+                                               Void attachment) {
+                             if (bytesRead >= 0 && buffer.hasRemaining())
+                                 readFully(channel, buffer, future);
+                             else {
+                                 close(channel);
+                                 future.complete(buffer.flip());
+                             }
+                         }
+
+                         @Override
+                         public void failed(Throwable ex,
+                                            Void attachment) {
+                             close(channel);
+                             future.completeExceptionally(ex);
+                         }
+                     });
+    }
+
+    /**
+     * Close the {@code channel}, ignoring any exceptions.
+     */
+    private static void close(AsynchronousFileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Swallow exceptions.
+        }
+    }
+
     /**
      * @return True iff the url is a resource file.
      */
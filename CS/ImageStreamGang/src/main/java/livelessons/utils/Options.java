@@ -1,7 +1,9 @@
 package livelessons.utils;
 
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.file.Path;
 import java.util.Iterator;
 import java.util.List;
 import java.util.function.Function;
@@ -33,11 +35,171 @@ public class Options {
         ERROR           // Returned if source is unrecognized.
     }
 
+    /**
+     * An enumeration of each different way of applying per-pixel
+     * filters to an image.
+     */
+    public enum FilterImplementation {
+        PIXEL,          // Pixel-by-pixel via getRGB()/setRGB().
+        RASTER,         // Directly on the array backing the raster.
+        PACKED          // On a PackedImage of int ARGB pixels.
+    }
+
+    /**
+     * An enumeration of each different way of encoding the filtered
+     * images that are stored.
+     */
+    public enum OutputFormat {
+        PNG,            // PNG at a configurable deflate level.
+        RAW,            // Uncompressed PAM (i.e., PPM with alpha).
+        SOURCE          // Format of the source image, else PNG.
+    }
+
+    /**
+     * An enumeration of each different way of decoding source images.
+     */
+    public enum DecodeMode {
+        FULL,           // Decode every pixel.
+        THUMBNAIL       // Subsample down to about the scaled image size
+                        // if RESIZE is one of the extra filters.
+    }
+
+    /**
+     * An enumeration of each filter that can be applied in addition
+     * to the NullFilter and the GrayScaleFilter.
+     */
+    public enum ExtraFilter {
+        BLUR,           // 5x5 Gaussian blur.
+        SHARPEN,        // Unsharp mask.
+        EDGE_DETECT,    // Sobel gradient magnitude.
+        RESIZE,         // Shrink to fit the scaled image size.
+        THRESHOLD,      // Black or white by luminance.
+        INVERT,         // Invert the colors.
+        GRAYSCALE_THRESHOLD_INVERT // All three composed into one pass.
+    }
+
     /**
      * Keep track of the source of the inputs.
      */
     private InputSource mInputSource = InputSource.DEFAULT_LOCAL;
 
+    /**
+     * Keep track of how per-pixel filters are applied.
+     */
+    private FilterImplementation mFilterImplementation =
+        FilterImplementation.PIXEL;
+
+    /**
+     * Controls whether per-pixel filters split large images into
+     * row bands that are processed in parallel (defaults to false).
+     */
+    private boolean mRowBandsEnabled = false;
+
+    /**
+     * Controls whether point filters are applied in a single fused
+     * pass over the source pixels (defaults to false).
+     */
+    private boolean mFusedFiltersEnabled = false;
+
+    /**
+     * The capacity of the DecodedImageCache in bytes (defaults to 0,
+     * which disables the cache).
+     */
+    private long mImageCacheBytes = 0;
+
+    /**
+     * The maximum number of bytes held by the RasterPool (defaults
+     * to 64 megabytes, 0 disables pooling).
+     */
+    private long mRasterPoolBytes = 64 * 1024 * 1024;
+
+    /**
+     * The number of AsyncImageWriter threads (defaults to 0, which
+     * writes images synchronously in the filter threads).
+     */
+    private int mWriterThreads = 0;
+
+    /**
+     * Keep track of how filtered images are encoded by default.
+     */
+    private OutputFormat mOutputFormat = OutputFormat.PNG;
+
+    /**
+     * The deflate level (0-9) of PNG output images (defaults to -1,
+     * which uses the default level of the PNG writer).
+     */
+    private int mCompressionLevel = -1;
+
+    /**
+     * Controls whether PipelineMetrics records per-stage timings and
+     * counters (defaults to true).
+     */
+    private boolean mMetricsEnabled = true;
+
+    /**
+     * The largest number of concurrent downloads the DownloadLimiter
+     * may allow (defaults to 0, which disables the limiter).
+     */
+    private int mMaxDownloads = 0;
+
+    /**
+     * The manifest of URLs that's read for the FILE input source.
+     */
+    private String mManifestPath;
+
+    /**
+     * The number of URLs from the manifest processed in each cycle
+     * (defaults to 1000).
+     */
+    private int mCycleSize = 1000;
+
+    /**
+     * Keep track of how source images are decoded.  THUMBNAIL only
+     * takes effect if the ResizeFilter is applied, and then every
+     * filter (including the NullFilter and the GrayScaleFilter)
+     * outputs images of about the scaled image size.
+     */
+    private DecodeMode mDecodeMode = DecodeMode.FULL;
+
+    /**
+     * The filters that are applied in addition to the default
+     * filters (defaults to none).
+     */
+    private List<ExtraFilter> mExtraFilters = List.of();
+
+    /**
+     * Controls whether only images whose source content, filter
+     * version, or output settings changed since they were stored are
+     * recomputed, rather than deleting and recomputing all of them
+     * (defaults to false).
+     */
+    private boolean mIncrementalEnabled = false;
+
+    /**
+     * Controls whether point filters that provide a SIMD kernel and
+     * the Convolution engine use the Vector API, which requires the
+     * jdk.incubator.vector module (defaults to true, so the Vector
+     * API is used whenever the module is present).
+     */
+    private boolean mSimdEnabled = true;
+
+    /**
+     * Controls whether the ImageScheduler runs the images of each
+     * cycle largest-first and splits oversized images into row bands
+     * (defaults to false).
+     */
+    private boolean mSchedulingEnabled = false;
+
+    /**
+     * True if the Vector API module has been resolved in this JVM,
+     * i.e., it was started with "--add-modules jdk.incubator.vector".
+     */
+    private static final boolean sVECTOR_API_AVAILABLE =
+        ModuleLayer
+        .boot()
+        .findModule("jdk.incubator.vector")
+        .isPresent();
+
     /**
      * Default image names to use for testing.
      */
@@ -150,6 +312,9 @@ public class Options {
      */
     public Iterator<List<URL>> getUrlIterator(Object obj,
                                               Object listUrlGroups) {
+        if (mInputSource == InputSource.FILE)
+            return getManifestUrlIterator();
+
     	List<List<URL>> urlLists = getUrlLists(obj,
                                                listUrlGroups);
     	return urlLists != null && urlLists.size() > 0
@@ -158,9 +323,13 @@ public class Options {
     }
 
     /**
-     * Return an Iterator over one or more input URL Lists.
+     * Return an Iterator over one or more input URL Lists.  The FILE
+     * input source reads its manifest lazily, one cycle at a time.
      */
     public Iterator<List<URL>> getUrlIterator() {
+        if (mInputSource == InputSource.FILE)
+            return getManifestUrlIterator();
+
         List<List<URL>> urlLists =
             getUrlLists(null, null);
     	return urlLists != null && urlLists.size() > 0
@@ -168,6 +337,30 @@ public class Options {
             : null;
     }
 
+    /**
+     * Return an Iterator that lazily reads the URLs in the manifest
+     * in cycles of mCycleSize URLs, or null if it can't be read.
+     */
+    private Iterator<List<URL>> getManifestUrlIterator() {
+        if (mManifestPath == null) {
+            System.out.println("No manifest given for the FILE input source");
+            return null;
+        }
+
+        if (mCycleSize <= 0) {
+            System.out.println("The number of URLs per cycle must be positive");
+            return null;
+        }
+
+        try {
+            return new ManifestUrlIterator(Path.of(mManifestPath),
+                                           mCycleSize);
+        } catch (IOException e) {
+            System.out.println("Unable to read manifest " + mManifestPath);
+            return null;
+        }
+    }
+
     /**
      * Gets the list of lists of URLs from which the user wants to
      * download images.
@@ -270,6 +463,149 @@ public class Options {
             .collect(toList());
     }
 
+    /**
+     * Returns how per-pixel filters are applied.
+     */
+    public FilterImplementation getFilterImplementation() {
+        return mFilterImplementation;
+    }
+
+    /**
+     * Set how per-pixel filters are applied.
+     */
+    public void setFilterImplementation(FilterImplementation filterImplementation) {
+        mFilterImplementation = filterImplementation;
+    }
+
+    /**
+     * Returns whether per-pixel filters process large images in
+     * parallel row bands.
+     */
+    public boolean rowBandsEnabled() {
+        return mRowBandsEnabled;
+    }
+
+    /**
+     * Returns whether point filters are applied in a single fused
+     * pass over the source pixels.
+     */
+    public boolean fusedFiltersEnabled() {
+        return mFusedFiltersEnabled;
+    }
+
+    /**
+     * Returns the capacity of the DecodedImageCache in bytes.
+     */
+    public long getImageCacheBytes() {
+        return mImageCacheBytes;
+    }
+
+    /**
+     * Returns the maximum number of bytes held by the RasterPool.
+     */
+    public long getRasterPoolBytes() {
+        return mRasterPoolBytes;
+    }
+
+    /**
+     * Returns the number of AsyncImageWriter threads.
+     */
+    public int getWriterThreads() {
+        return mWriterThreads;
+    }
+
+    /**
+     * Returns how filtered images are encoded by default.
+     */
+    public OutputFormat getOutputFormat() {
+        return mOutputFormat;
+    }
+
+    /**
+     * Returns the deflate level of PNG output images, or -1 for the
+     * default level.
+     */
+    public int getCompressionLevel() {
+        return mCompressionLevel;
+    }
+
+    /**
+     * Returns whether PipelineMetrics records per-stage timings and
+     * counters.
+     */
+    public boolean metricsEnabled() {
+        return mMetricsEnabled;
+    }
+
+    /**
+     * Returns the largest number of concurrent downloads the
+     * DownloadLimiter may allow.
+     */
+    public int getMaxDownloads() {
+        return mMaxDownloads;
+    }
+
+    /**
+     * Returns the filters that are applied in addition to the
+     * default filters.
+     */
+    public List<ExtraFilter> getExtraFilters() {
+        return mExtraFilters;
+    }
+
+    /**
+     * Returns how source images are decoded, which is FULL unless
+     * THUMBNAIL was requested and the ResizeFilter is applied, since
+     * the other filters output images at the decoded resolution.
+     */
+    public DecodeMode getDecodeMode() {
+        return mDecodeMode == DecodeMode.THUMBNAIL
+            && mExtraFilters.contains(ExtraFilter.RESIZE)
+            ? DecodeMode.THUMBNAIL
+            : DecodeMode.FULL;
+    }
+
+    /**
+     * Returns whether only images whose source content, filter
+     * version, or output settings changed are recomputed.
+     */
+    public boolean incrementalEnabled() {
+        return mIncrementalEnabled;
+    }
+
+    /**
+     * Returns a string that identifies the options that affect the
+     * images that are stored in the given @a outputFormat, i.e., how
+     * source images are decoded, how the filters compute their
+     * pixels, and how the filtered images are encoded.  It's part of
+     * the fingerprint of each stored image in incremental mode, so
+     * changing any of these options recomputes the stored images.
+     */
+    public String getOutputSettings(OutputFormat outputFormat) {
+        return String.join(",",
+                           getDecodeMode().name(),
+                           mFilterImplementation.name(),
+                           simdEnabled() ? "SIMD" : "SCALAR",
+                           outputFormat.name(),
+                           Integer.toString(mCompressionLevel));
+    }
+
+    /**
+     * Returns whether SIMD kernels are used, i.e., they're enabled
+     * and the Vector API is available.
+     */
+    public boolean simdEnabled() {
+        return mSimdEnabled && sVECTOR_API_AVAILABLE;
+    }
+
+    /**
+     * Returns whether the ImageScheduler schedules images by their
+     * estimated cost.
+     */
+    public boolean schedulingEnabled() {
+        return mSchedulingEnabled;
+    }
+
     /**
      * Returns whether debugging output is generated.
      */
@@ -282,18 +618,85 @@ public class Options {
      */
     public boolean parseArgs(String argv[]) {
         if (argv != null) {
-            for (int argc = 0; argc < argv.length; argc += 2)
-                switch (argv[argc]) {
-                case "-d":
-                    mDiagnosticsEnabled = argv[argc + 1].equals("true");
-                    break;
-                case "-s":
-                    mInputSource = getInputSource(argv[argc + 1]);
-                    break;
-                default:
-                    printUsage();
-                    return false;
-                }
+            try {
+                for (int argc = 0; argc < argv.length; argc += 2)
+                    switch (argv[argc]) {
+                    case "-b":
+                        mRowBandsEnabled = argv[argc + 1].equals("true");
+                        break;
+                    case "-c":
+                        mImageCacheBytes =
+                            Long.parseLong(argv[argc + 1]) * 1024 * 1024;
+                        break;
+                    case "-d":
+                        mDiagnosticsEnabled = argv[argc + 1].equals("true");
+                        break;
+                    case "-e":
+                        mDecodeMode =
+                            DecodeMode.valueOf(argv[argc + 1].toUpperCase());
+                        break;
+                    case "-f":
+                        mFusedFiltersEnabled = argv[argc + 1].equals("true");
+                        break;
+                    case "-g":
+                        mExtraFilters = Stream
+                            .of(argv[argc + 1].split(","))
+                            .map(name ->
+                                 ExtraFilter.valueOf(name.trim().toUpperCase()))
+                            .toList();
+                        break;
+                    case "-i":
+                        mFilterImplementation =
+                            FilterImplementation.valueOf(argv[argc + 1].toUpperCase());
+                        break;
+                    case "-l":
+                        mMaxDownloads = Integer.parseInt(argv[argc + 1]);
+                        break;
+                    case "-m":
+                        mManifestPath = argv[argc + 1];
+                        break;
+                    case "-n":
+                        mCycleSize = Integer.parseInt(argv[argc + 1]);
+                        break;
+                    case "-o":
+                        mOutputFormat =
+                            OutputFormat.valueOf(argv[argc + 1].toUpperCase());
+                        break;
+                    case "-p":
+                        mSchedulingEnabled = argv[argc + 1].equals("true");
+                        break;
+                    case "-r":
+                        mRasterPoolBytes =
+                            Long.parseLong(argv[argc + 1]) * 1024 * 1024;
+                        break;
+                    case "-s":
+                        mInputSource = getInputSource(argv[argc + 1]);
+                        break;
+                    case "-t":
+                        mMetricsEnabled = argv[argc + 1].equals("true");
+                        break;
+                    case "-u":
+                        mIncrementalEnabled = argv[argc + 1].equals("true");
+                        break;
+                    case "-v":
+                        mSimdEnabled = argv[argc + 1].equals("true");
+                        break;
+                    case "-w":
+                        mWriterThreads = Integer.parseInt(argv[argc + 1]);
+                        break;
+                    case "-z":
+                        mCompressionLevel = Integer.parseInt(argv[argc + 1]);
+                        break;
+                    default:
+                        printUsage();
+                        return false;
+                    }
+            } catch (IllegalArgumentException e) {
+                // Unknown enum names and malformed numbers.
+                System.out.println("Invalid argument " + e.getMessage());
+                printUsage();
+                return false;
+            }
             return true;
         } else
             return false;
@@ -304,8 +707,25 @@ public class Options {
      */
     public void printUsage() {
         System.out.println("Usage: ");
+        System.out.println("-b [true|false]");
+        System.out.println("-c [image cache megabytes]");
         System.out.println("-d [true|false]");
+        System.out.println("-e [FULL|THUMBNAIL] (THUMBNAIL needs -g RESIZE and shrinks every filter's output)");
+        System.out.println("-f [true|false]");
+        System.out.println("-g [BLUR,SHARPEN,EDGE_DETECT,RESIZE,THRESHOLD,INVERT,GRAYSCALE_THRESHOLD_INVERT]");
+        System.out.println("-i [PIXEL|RASTER|PACKED]");
+        System.out.println("-l [max concurrent downloads]");
+        System.out.println("-m [manifest file of URLs]");
+        System.out.println("-n [URLs per cycle]");
+        System.out.println("-o [PNG|RAW|SOURCE]");
+        System.out.println("-p [true|false]");
+        System.out.println("-r [raster pool megabytes]");
         System.out.println("-s [DEFAULT|DEFAULT_LOCAL|USER|FILE]");
+        System.out.println("-t [true|false]");
+        System.out.println("-u [true|false]");
+        System.out.println("-v [true|false]");
+        System.out.println("-w [writer threads]");
+        System.out.println("-z [PNG deflate level 0-9]");
     }
 
     /**
@@ -0,0 +1,145 @@
+package livelessons.utils;
+
+/**
+ * A lightweight, platform-independent image whose pixels are packed
+ * into an {@code int[]} as non-premultiplied sRGB ARGB values, one
+ * int per pixel.  Row {@code r} starts at index {@code offset + r *
+ * stride} of the array, so a PackedImage can wrap the array that
+ * backs a platform image without copying it.  Filters written
+ * against this class only index a primitive array, so their inner
+ * loops have no virtual calls or color-model conversions and are
+ * easy for the JIT compiler to vectorize.  Conversions to and from
+ * platform images are provided by PlatSpec.
+ */
+public class PackedImage {
+    /**
+     * The packed ARGB pixels.
+     */
+    private final int[] mPixels;
+
+    /**
+     * The index of the first pixel of the first row.
+     */
+    private final int mOffset;
+
+    /**
+     * The width of the image in pixels.
+     */
+    private final int mWidth;
+
+    /**
+     * The height of the image in pixels.
+     */
+    private final int mHeight;
+
+    /**
+     * The distance between the first pixels of adjacent rows.
+     */
+    private final int mStride;
+
+    /**
+     * Keeps track of whether the alpha channel is meaningful, i.e.,
+     * whether the image may contain pixels that aren't opaque.
+     */
+    private final boolean mHasAlpha;
+
+    /**
+     * Construct a PackedImage with a new, zeroed array of pixels.
+     */
+    public PackedImage(int width,
+                       int height,
+                       boolean hasAlpha) {
+        this(new int[width * height], 0, width, height, width, hasAlpha);
+    }
+
+    /**
+     * Construct a PackedImage that wraps an existing array of {@code
+     * pixels} without copying it.
+     */
+    public PackedImage(int[] pixels,
+                       int offset,
+                       int width,
+                       int height,
+                       int stride,
+                       boolean hasAlpha) {
+        if (width < 0
+            || height < 0
+            || stride < width
+            || offset < 0
+            || (height > 0
+                && offset + (long) (height - 1) * stride + width > pixels.length))
+            throw new IllegalArgumentException("pixels don't fit in the array");
+
+        mPixels = pixels;
+        mOffset = offset;
+        mWidth = width;
+        mHeight = height;
+        mStride = stride;
+        mHasAlpha = hasAlpha;
+    }
+
+    /**
+     * Returns the array of packed ARGB pixels, which is shared rather
+     * than copied.
+     */
+    public int[] getPixels() {
+        return mPixels;
+    }
+
+    /**
+     * Returns the index of the first pixel of the first row.
+     */
+    public int getOffset() {
+        return mOffset;
+    }
+
+    /**
+     * Returns the width of the image in pixels.
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * Returns the height of the image in pixels.
+     */
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Returns the distance between the first pixels of adjacent rows.
+     */
+    public int getStride() {
+        return mStride;
+    }
+
+    /**
+     * Returns true if the image may contain pixels that aren't
+     * opaque, else false.
+     */
+    public boolean hasAlpha() {
+        return mHasAlpha;
+    }
+
+    /**
+     * Returns the index of the first pixel in {@code row}.
+     */
+    public int rowOffset(int row) {
+        return mOffset + row * mStride;
+    }
+
+    /**
+     * Returns the pixel at ({@code x}, {@code y}).
+     */
+    public int getPixel(int x, int y) {
+        return mPixels[rowOffset(y) + x];
+    }
+
+    /**
+     * Sets the pixel at ({@code x}, {@code y}) to {@code argb}.
+     */
+    public void setPixel(int x, int y, int argb) {
+        mPixels[rowOffset(y) + x] = argb;
+    }
+}
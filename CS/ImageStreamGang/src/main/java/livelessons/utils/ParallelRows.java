@@ -0,0 +1,145 @@
+package livelessons.utils;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A Java utility class that applies an action to the rows of an
+ * image either sequentially or in parallel.  In parallel mode the
+ * rows are split recursively into bands that are processed by
+ * fork-join RecursiveActions in the common fork-join pool, so one
+ * very large image can keep all the cores busy.  Small images are
+ * always processed sequentially since splitting them would cost more
+ * than it saves.
+ */
+public final class ParallelRows {
+    /**
+     * Images with fewer pixels than this are processed sequentially.
+     */
+    private static final int sSEQUENTIAL_THRESHOLD = 1 << 20;
+
+    /**
+     * Bands are not split further once they have fewer pixels than
+     * this.
+     */
+    private static final int sMIN_BAND_PIXELS = 1 << 16;
+
+    /**
+     * The action applied to a band of rows.
+     */
+    @FunctionalInterface
+    public interface RowAction {
+        /**
+         * Process the rows in the range [{@code fromRow},
+         * {@code toRow}).
+         */
+        void apply(int fromRow, int toRow);
+    }
+
+    /**
+     * A utility class should always define a private constructor.
+     */
+    private ParallelRows() {
+    }
+
+    /**
+     * Apply {@code action} to all the rows of a {@code width} by
+     * {@code height} image, in parallel bands if row-band mode is
+     * enabled in Options and the image is large enough, or if the
+     * ImageScheduler considers the image oversized.
+     */
+    public static void forEachRowBand(int width,
+                                      int height,
+                                      RowAction action) {
+        forEachRowBand(width,
+                       height,
+                       Math.max(1, sMIN_BAND_PIXELS / width),
+                       action);
+    }
+
+    /**
+     * Apply {@code action} to all the rows of a {@code width} by
+     * {@code height} image like forEachRowBand() above, but only
+     * split bands at multiples of {@code minRows} rows, e.g., so
+     * every band (except possibly the last one) holds whole tiles.
+     */
+    public static void forEachRowBand(int width,
+                                      int height,
+                                      int minRows,
+                                      RowAction action) {
+        if ((long) width * height < sSEQUENTIAL_THRESHOLD
+            || !(Options.instance().rowBandsEnabled()
+                 || ImageScheduler.instance().isOversized(width, height)))
+            // Process all the rows in the calling thread.
+            action.apply(0, height);
+        else
+            // Split the rows into bands and process them in the
+            // common fork-join pool.
+            ForkJoinPool
+                .commonPool()
+                .invoke(new RowBandTask(action,
+                                        0,
+                                        height,
+                                        minRows));
+    }
+
+    /**
+     * Recursively splits a band of rows in half at a multiple of the
+     * minimum number of rows until it's small enough to process
+     * directly.
+     */
+    @SuppressWarnings("serial")
+    private static class RowBandTask
+            extends RecursiveAction {
+        /**
+         * The action applied to each band.
+         */
+        private final RowAction mAction;
+
+        /**
+         * The first row of this band.
+         */
+        private final int mFromRow;
+
+        /**
+         * One past the last row of this band.
+         */
+        private final int mToRow;
+
+        /**
+         * Bands are only split at multiples of this many rows, so
+         * bands with no more rows than this aren't split.
+         */
+        private final int mMinRows;
+
+        /**
+         * Constructor initializes the fields.
+         */
+        RowBandTask(RowAction action,
+                    int fromRow,
+                    int toRow,
+                    int minRows) {
+            mAction = action;
+            mFromRow = fromRow;
+            mToRow = toRow;
+            mMinRows = minRows;
+        }
+
+        /**
+         * Process the band directly or split it in half and process
+         * both halves in parallel.  Since the first band starts at
+         * row 0, every split is at a multiple of mMinRows.
+         */
+        @Override
+        protected void compute() {
+            int units = (mToRow - mFromRow + mMinRows - 1) / mMinRows;
+            if (units <= 1)
+                mAction.apply(mFromRow, mToRow);
+            else {
+                int middle = mFromRow + (units >>> 1) * mMinRows;
+                invokeAll(new RowBandTask(mAction, mFromRow, middle, mMinRows),
+                          new RowBandTask(mAction, middle, mToRow, mMinRows));
+            }
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package livelessons.utils;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class implements the Singleton pattern to record how long
+ * each stage of the image pipeline takes and how much data flows
+ * through it, which is shared by all the ImageStreamGang strategies.
+ * Each stage (and each filter) has its own LatencyHistogram and the
+ * counters are LongAdders, so recording is cheap enough to leave
+ * enabled under load.  Metrics are enabled via Options.
+ */
+public class PipelineMetrics {
+    /** The singleton @a PipelineMetrics instance. */
+    private static PipelineMetrics mUniqueInstance = null;
+
+    /**
+     * An enumeration of the stages of the image pipeline.
+     */
+    public enum Stage {
+        CACHE_CHECK,    // Checking whether a filtered image is stored.
+        DOWNLOAD,       // Downloading (or reading) the source image.
+        DECODE,         // Decoding (and hashing) the source image.
+        FILTER,         // Applying a filter (recorded per filter).
+        ENCODE,         // Encoding a filtered image.
+        WRITE           // Writing an encoded image to its file.
+    }
+
+    /**
+     * Controls whether metrics are recorded.
+     */
+    private final boolean mEnabled;
+
+    /**
+     * The histogram of each stage other than FILTER.
+     */
+    private final Map<Stage, LatencyHistogram> mStages =
+        new EnumMap<>(Stage.class);
+
+    /**
+     * The histogram of each filter, keyed by filter name.
+     */
+    private final Map<String, LatencyHistogram> mFilters =
+        new ConcurrentHashMap<>();
+
+    /**
+     * Counts the bytes of source images that were read.
+     */
+    private final LongAdder mBytesRead = new LongAdder();
+
+    /**
+     * Counts the bytes of filtered images that were written.
+     */
+    private final LongAdder mBytesWritten = new LongAdder();
+
+    /**
+     * Counts the filtered images that were stored.
+     */
+    private final LongAdder mImagesStored = new LongAdder();
+
+    /**
+     * The total time spent running strategies in nanoseconds.
+     */
+    private final LongAdder mActiveNanos = new LongAdder();
+
+    /**
+     * Method to return the one and only singleton uniqueInstance.
+     */
+    public static synchronized PipelineMetrics instance() {
+        if (mUniqueInstance == null)
+            mUniqueInstance =
+                new PipelineMetrics(Options.instance().metricsEnabled());
+
+        return mUniqueInstance;
+    }
+
+    /**
+     * Make the constructor private for a singleton.
+     */
+    private PipelineMetrics(boolean enabled) {
+        mEnabled = enabled;
+
+        // Create all the histograms up front, so recording never
+        // modifies the map.
+        for (Stage stage : Stage.values())
+            mStages.put(stage, new LatencyHistogram());
+    }
+
+    /**
+     * @return true if metrics are recorded, else false.
+     */
+    public boolean enabled() {
+        return mEnabled;
+    }
+
+    /**
+     * @return The start time of a stage to pass to record(), or 0 if
+     *         metrics are disabled.
+     */
+    public long start() {
+        return mEnabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record that the {@code stage} ran from {@code startNanos}
+     * (returned by start()) until now.
+     */
+    public void record(Stage stage, long startNanos) {
+        if (mEnabled)
+            mStages.get(stage).record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Record that the filter named {@code filterName} ran from {@code
+     * startNanos} (returned by start()) until now.
+     */
+    public void recordFilter(String filterName, long startNanos) {
+        if (mEnabled)
+            mFilters
+                .computeIfAbsent(filterName, name -> new LatencyHistogram())
+                .record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Add {@code bytes} to the number of source bytes read.
+     */
+    public void addBytesRead(long bytes) {
+        if (mEnabled)
+            mBytesRead.add(bytes);
+    }
+
+    /**
+     * Note that a filtered image of {@code bytes} has been stored.
+     */
+    public void addImageStored(long bytes) {
+        if (mEnabled) {
+            mBytesWritten.add(bytes);
+            mImagesStored.increment();
+        }
+    }
+
+    /**
+     * Add {@code nanos} to the time spent running strategies, which
+     * is used to compute the throughput.
+     */
+    public void addActiveTime(long nanos) {
+        if (mEnabled)
+            mActiveNanos.add(nanos);
+    }
+
+    /**
+     * @return The number of filtered images stored per second of
+     *         active time.
+     */
+    public double imagesPerSecond() {
+        long nanos = mActiveNanos.sum();
+        return nanos == 0 ? 0 : mImagesStored.sum() * 1e9 / nanos;
+    }
+
+    /**
+     * Forget all the recorded metrics, e.g., after warming up.
+     */
+    public void reset() {
+        mStages.values().forEach(LatencyHistogram::reset);
+        mFilters.clear();
+        mBytesRead.reset();
+        mBytesWritten.reset();
+        mImagesStored.reset();
+        mActiveNanos.reset();
+    }
+
+    /**
+     * @return A summary of the recorded metrics with one line per
+     *         stage.
+     */
+    @Override
+    public String toString() {
+        StringBuilder summary = new StringBuilder("PipelineMetrics:\n");
+
+        for (Stage stage : Stage.values())
+            if (stage == Stage.FILTER)
+                // List the filters in name order.
+                new ConcurrentSkipListMap<>(mFilters)
+                    .forEach((name, histogram) ->
+                             appendLine(summary,
+                                        "FILTER " + name,
+                                        histogram));
+            else
+                appendLine(summary, stage.toString(), mStages.get(stage));
+
+        return summary
+            .append(String.format("  %d byte(s) read, %d byte(s) written, "
+                                  + "%d image(s) stored, %.1f image(s)/sec",
+                                  mBytesRead.sum(),
+                                  mBytesWritten.sum(),
+                                  mImagesStored.sum(),
+                                  imagesPerSecond()))
+            .toString();
+    }
+
+    /**
+     * Append a line summarizing the {@code histogram} of the stage
+     * called {@code name} to the {@code summary}.
+     */
+    private static void appendLine(StringBuilder summary,
+                                   String name,
+                                   LatencyHistogram histogram) {
+        summary
+            .append(String.format("  %-26s ", name))
+            .append(histogram)
+            .append('\n');
+    }
+}
@@ -0,0 +1,226 @@
+package livelessons.utils;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * This class implements the Singleton pattern to provide a pool of
+ * reusable rasters for filtered images.  Filters borrow a raster
+ * that's compatible with the image they filter and
+ * OutputFilterDecorator returns it once the filtered image has been
+ * written, so the steady state doesn't allocate a new multi-megabyte
+ * raster for every filtered image.  Rasters are pooled by (width,
+ * height, image type) and the total number of pooled bytes is capped
+ * via Options, where a cap of 0 disables pooling.
+ */
+public class RasterPool {
+    /** The singleton @a RasterPool instance. */
+    private static RasterPool mUniqueInstance = null;
+
+    /**
+     * Identifies rasters that are interchangeable.
+     */
+    private record Key(int width, int height, int type) {
+    }
+
+    /**
+     * The maximum number of bytes held by pooled rasters.
+     */
+    private final long mCapacity;
+
+    /**
+     * The number of bytes currently held by pooled rasters.
+     */
+    private final AtomicLong mPooledBytes = new AtomicLong();
+
+    /**
+     * The idle rasters for each key.
+     */
+    private final Map<Key, Queue<WritableRaster>> mRasters =
+        new ConcurrentHashMap<>();
+
+    /**
+     * Counts the rasters that were borrowed.
+     */
+    private final LongAdder mBorrows = new LongAdder();
+
+    /**
+     * Counts the borrowed rasters that were reused from the pool.
+     */
+    private final LongAdder mReuses = new LongAdder();
+
+    /**
+     * Counts the rasters that were returned but didn't fit.
+     */
+    private final LongAdder mDiscards = new LongAdder();
+
+    /**
+     * Method to return the one and only singleton uniqueInstance.
+     */
+    public static synchronized RasterPool instance() {
+        if (mUniqueInstance == null)
+            mUniqueInstance =
+                new RasterPool(Options.instance().getRasterPoolBytes());
+
+        return mUniqueInstance;
+    }
+
+    /**
+     * Make the constructor private for a singleton.
+     */
+    private RasterPool(long capacity) {
+        mCapacity = capacity;
+    }
+
+    /**
+     * @return true if rasters are pooled, else false.
+     */
+    public boolean enabled() {
+        return mCapacity > 0;
+    }
+
+    /**
+     * Borrow a raster that's compatible with {@code image}, i.e., it
+     * has the same dimensions and sample layout.  Its pixels are
+     * undefined, so the caller must overwrite all of them.
+     */
+    public WritableRaster borrow(BufferedImage image) {
+        return borrow(key(image.getWidth(),
+                          image.getHeight(),
+                          image.getType()),
+                      () -> image
+                      .getRaster()
+                      .createCompatibleWritableRaster(image.getWidth(),
+                                                      image.getHeight()));
+    }
+
+    /**
+     * Borrow a raster for an image of the given {@code width}, {@code
+     * height}, and (predefined) BufferedImage {@code type}.  Its
+     * pixels are undefined, so the caller must overwrite all of them.
+     */
+    public WritableRaster borrow(int width, int height, int type) {
+        return borrow(key(width, height, type),
+                      () -> new BufferedImage(width, height, type).getRaster());
+    }
+
+    /**
+     * Borrow a pooled raster for {@code key} or make a new one via
+     * {@code factory} if there are none.
+     */
+    private WritableRaster borrow(Key key,
+                                  Supplier<WritableRaster> factory) {
+        mBorrows.increment();
+
+        Queue<WritableRaster> rasters =
+            key == null ? null : mRasters.get(key);
+        WritableRaster raster =
+            rasters == null ? null : rasters.poll();
+
+        if (raster == null)
+            return factory.get();
+
+        mPooledBytes.addAndGet(-sizeOf(raster));
+        mReuses.increment();
+        return raster;
+    }
+
+    /**
+     * Borrow a raster that's compatible with {@code image} and
+     * contains a copy of its pixels.
+     */
+    public WritableRaster borrowCopy(BufferedImage image) {
+        return image.copyData(borrow(image));
+    }
+
+    /**
+     * Return the raster of a recyclable {@code image} to the pool if
+     * there's room.  The image no longer refers to its pixels
+     * afterwards, so it can't accidentally see them being reused.
+     */
+    public void release(Image image) {
+        if (!image.isRecyclable())
+            return;
+
+        BufferedImage bufferedImage = image.getImage();
+        image.setRecyclable(false);
+        image.setImage((Object) null);
+
+        Key key = bufferedImage == null
+            ? null
+            : key(bufferedImage.getWidth(),
+                  bufferedImage.getHeight(),
+                  bufferedImage.getType());
+        if (key == null)
+            return;
+
+        WritableRaster raster = bufferedImage.getRaster();
+        long bytes = sizeOf(raster);
+
+        // Only pool the raster if it fits under the cap.
+        if (mPooledBytes.addAndGet(bytes) > mCapacity) {
+            mPooledBytes.addAndGet(-bytes);
+            mDiscards.increment();
+        } else
+            mRasters
+                .computeIfAbsent(key, k -> new ConcurrentLinkedQueue<>())
+                .offer(raster);
+    }
+
+    /**
+     * @return The fraction of borrowed rasters that were reused.
+     */
+    public double reuseRate() {
+        long borrows = mBorrows.sum();
+        return borrows == 0 ? 0 : (double) mReuses.sum() / borrows;
+    }
+
+    /**
+     * @return A summary of the pool statistics.
+     */
+    @Override
+    public String toString() {
+        return "RasterPool: "
+            + mBorrows.sum() + " borrow(s), "
+            + mReuses.sum() + " reuse(s) ("
+            + Math.round(reuseRate() * 100) + "%), "
+            + mDiscards.sum() + " discard(s), "
+            + mPooledBytes.get() + " of " + mCapacity + " bytes pooled";
+    }
+
+    /**
+     * @return The pool key for rasters of images with the given
+     *         dimensions and {@code type}, or null if rasters of that
+     *         type can't be pooled
+     */
+    private Key key(int width, int height, int type) {
+        // Custom and binary images may have arbitrary layouts, so
+        // rasters with the same type aren't always interchangeable.
+        if (mCapacity == 0
+            || type == BufferedImage.TYPE_CUSTOM
+            || type == BufferedImage.TYPE_BYTE_BINARY)
+            return null;
+
+        return new Key(width, height, type);
+    }
+
+    /**
+     * @return The number of bytes used by the pixels of {@code raster}.
+     */
+    static long sizeOf(Raster raster) {
+        DataBuffer dataBuffer = raster.getDataBuffer();
+        return (long) dataBuffer.getSize()
+            * dataBuffer.getNumBanks()
+            * DataBuffer.getDataTypeSize(dataBuffer.getDataType())
+            / 8;
+    }
+}
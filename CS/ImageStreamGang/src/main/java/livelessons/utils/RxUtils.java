@@ -1,5 +1,6 @@
 package livelessons.utils;
 
+import io.reactivex.rxjava3.core.FlowableTransformer;
 import io.reactivex.rxjava3.core.ObservableTransformer;
 import io.reactivex.rxjava3.core.SingleTransformer;
 import io.reactivex.rxjava3.parallel.ParallelTransformer;
@@ -36,6 +37,15 @@ public class RxUtils {
             .runOn(Schedulers.from(ForkJoinPool.commonPool()));
     }
 
+    /**
+     * @return Schedule a flowable to run on the common fork-join
+     * pool.
+     */
+    public static <T> FlowableTransformer<T, T> commonPoolFlowable() {
+        return flowable -> flowable
+            .subscribeOn(Schedulers.from(ForkJoinPool.commonPool()));
+    }
+
     /**
      * @return Schedule an observable to run on the common fork-join
      * pool.
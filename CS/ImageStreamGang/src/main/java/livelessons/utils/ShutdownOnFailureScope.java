@@ -0,0 +1,103 @@
+package livelessons.utils;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A structured task scope that runs each forked subtask in its own
+ * virtual thread and cancels all the other subtasks as soon as one of
+ * them fails.  It mirrors the "ShutdownOnFailure" policy of the
+ * preview {@code StructuredTaskScope} API, but only relies on APIs
+ * that are final in Java 21, so no {@code --enable-preview} flag is
+ * needed to compile or run the app.
+ */
+public final class ShutdownOnFailureScope
+       implements AutoCloseable {
+    /**
+     * Starts a new virtual thread for each forked subtask.
+     */
+    private final ExecutorService mExecutor =
+        Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * The subtasks that have been forked in this scope.
+     */
+    private final List<Future<?>> mSubtasks =
+        new CopyOnWriteArrayList<>();
+
+    /**
+     * The exception thrown by the first subtask that failed.
+     */
+    private final AtomicReference<Throwable> mFailure =
+        new AtomicReference<>();
+
+    /**
+     * Start a new virtual thread to run {@code task} in this scope.
+     *
+     * @param task The subtask to run
+     * @return A {@link Future} to the result of {@code task}
+     */
+    public <T> Future<T> fork(Callable<T> task) {
+        Future<T> subtask = mExecutor.submit(() -> {
+                try {
+                    return task.call();
+                } catch (Throwable t) {
+                    // Only the first failure shuts down the scope.
+                    if (mFailure.compareAndSet(null, t))
+                        shutdown();
+                    throw t;
+                }
+            });
+        mSubtasks.add(subtask);
+
+        // Cancel subtasks that are forked after the scope failed.
+        if (mFailure.get() != null)
+            subtask.cancel(true);
+        return subtask;
+    }
+
+    /**
+     * Wait for all the subtasks forked so far to complete (or to be
+     * cancelled).
+     */
+    public ShutdownOnFailureScope join() throws InterruptedException {
+        for (Future<?> subtask : mSubtasks)
+            try {
+                subtask.get();
+            } catch (ExecutionException | CancellationException e) {
+                // Failures are reported via throwIfFailed().
+            }
+        return this;
+    }
+
+    /**
+     * Throw an {@link ExecutionException} if any subtask failed.
+     */
+    public void throwIfFailed() throws ExecutionException {
+        Throwable failure = mFailure.get();
+        if (failure != null)
+            throw new ExecutionException(failure);
+    }
+
+    /**
+     * Interrupt all subtasks that are still running.
+     */
+    private void shutdown() {
+        mSubtasks.forEach(subtask -> subtask.cancel(true));
+    }
+
+    /**
+     * Close the scope, which waits for all its threads to finish.
+     */
+    @Override
+    public void close() {
+        mExecutor.close();
+    }
+}
@@ -0,0 +1,57 @@
+package livelessons.utils;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Computes the weighted sums of the Convolution engine with the
+ * Vector API.  Each vector of outputs is accumulated in a register
+ * across all the weights and stored once, rather than being read
+ * and written once per weight.  This class must only be loaded if
+ * the jdk.incubator.vector module is available (see Options).
+ */
+class VectorRowAccumulator
+       implements Convolution.RowAccumulator {
+    /**
+     * The widest vector shape that's supported by the CPU.
+     */
+    private static final VectorSpecies<Float> sSPECIES =
+        FloatVector.SPECIES_PREFERRED;
+
+    /**
+     * Store the weighted sum of {@code weights.length} inputs, each
+     * {@code step} floats apart, for {@code length} consecutive
+     * outputs.
+     */
+    @Override
+    public void accumulate(float[] input,
+                           int inputOffset,
+                           int step,
+                           float[] weights,
+                           float[] output,
+                           int outputOffset,
+                           int length) {
+        int upperBound = sSPECIES.loopBound(length);
+        int x = 0;
+
+        for (; x < upperBound; x += sSPECIES.length()) {
+            FloatVector sum = FloatVector
+                .fromArray(sSPECIES, input, inputOffset + x)
+                .mul(weights[0]);
+            for (int j = 1; j < weights.length; ++j)
+                sum = FloatVector
+                    .fromArray(sSPECIES, input, inputOffset + j * step + x)
+                    .mul(weights[j])
+                    .add(sum);
+            sum.intoArray(output, outputOffset + x);
+        }
+
+        // Compute the outputs that don't fill a whole vector.
+        for (; x < length; ++x) {
+            float sum = 0;
+            for (int j = 0; j < weights.length; ++j)
+                sum += weights[j] * input[inputOffset + j * step + x];
+            output[outputOffset + x] = sum;
+        }
+    }
+}
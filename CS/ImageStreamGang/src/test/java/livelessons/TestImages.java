@@ -0,0 +1,129 @@
+package livelessons;
+
+import java.awt.image.BufferedImage;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Random;
+import java.util.function.IntUnaryOperator;
+
+import livelessons.utils.Image;
+import livelessons.utils.Options;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * A utility class that makes small test images and compares them
+ * pixel by pixel, so the fast filter paths can be checked against
+ * the getRGB()/setRGB() reference.
+ */
+public final class TestImages {
+    /**
+     * The image types the fast paths handle directly, with and
+     * without an alpha channel.
+     */
+    public static final int[] TYPES = {
+        BufferedImage.TYPE_INT_RGB,
+        BufferedImage.TYPE_INT_ARGB,
+        BufferedImage.TYPE_3BYTE_BGR,
+        BufferedImage.TYPE_4BYTE_ABGR
+    };
+
+    /**
+     * Odd sizes, so rows don't fill a whole vector and images don't
+     * fill a whole tile.
+     */
+    public static final int[][] SIZES = {
+        {1, 1},
+        {37, 23},
+        {67, 5}
+    };
+
+    /**
+     * A utility class should always define a private constructor.
+     */
+    private TestImages() {
+    }
+
+    /**
+     * @return A {@code width} by {@code height} image of the given
+     *         {@code type} with random pixels, about an eighth of which
+     *         are fully transparent if the type has an alpha channel
+     */
+    public static BufferedImage random(int width,
+                                       int height,
+                                       int type) {
+        Random random = new Random(width * 31L + height * 17L + type);
+        BufferedImage image = new BufferedImage(width, height, type);
+        boolean hasAlpha = image.getColorModel().hasAlpha();
+
+        for (int y = 0; y < height; ++y)
+            for (int x = 0; x < width; ++x) {
+                int argb = random.nextInt();
+                if (!hasAlpha)
+                    argb |= 0xFF000000;
+                else if (random.nextInt(8) == 0)
+                    argb &= 0x00FFFFFF;
+                image.setRGB(x, y, argb);
+            }
+        return image;
+    }
+
+    /**
+     * Restore the default values of the Options the tests change, so
+     * no test depends on the ones that ran before it.
+     */
+    public static void resetOptions() {
+        Options.instance().parseArgs(new String[] {"-i", "PIXEL",
+                                                   "-v", "true",
+                                                   "-b", "false"});
+    }
+
+    /**
+     * @return An Image that wraps the {@code bufferedImage}
+     */
+    public static Image image(BufferedImage bufferedImage) {
+        try {
+            return new Image(new URL("file:/test.png"),
+                             (Object) bufferedImage);
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return A copy of the {@code source} whose pixels are filtered
+     *         by {@code filter} one at a time via getRGB() and
+     *         setRGB(), which is the reference for the fast paths
+     */
+    public static BufferedImage reference(BufferedImage source,
+                                          IntUnaryOperator filter) {
+        BufferedImage result = new BufferedImage(source.getWidth(),
+                                                 source.getHeight(),
+                                                 source.getType());
+        for (int y = 0; y < source.getHeight(); ++y)
+            for (int x = 0; x < source.getWidth(); ++x)
+                result.setRGB(x, y,
+                              filter.applyAsInt(source.getRGB(x, y)));
+        return result;
+    }
+
+    /**
+     * Assert that the {@code actual} image has the same size and
+     * getRGB() pixels as the {@code expected} image.
+     */
+    public static void assertSamePixels(BufferedImage expected,
+                                        BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth(), "width");
+        assertEquals(expected.getHeight(), actual.getHeight(), "height");
+
+        for (int y = 0; y < expected.getHeight(); ++y)
+            for (int x = 0; x < expected.getWidth(); ++x) {
+                int expectedPixel = expected.getRGB(x, y);
+                int actualPixel = actual.getRGB(x, y);
+                if (expectedPixel != actualPixel)
+                    assertEquals(Integer.toHexString(expectedPixel),
+                                 Integer.toHexString(actualPixel),
+                                 "pixel (" + x + ", " + y + ")");
+            }
+    }
+}
@@ -0,0 +1,151 @@
+package livelessons.filters;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import livelessons.TestImages;
+import livelessons.utils.Image;
+import livelessons.utils.Options;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that a chain of point filters made by PointFilter.andThen()
+ * produces the same pixels as applying each filter's filterPixel()
+ * in turn.
+ */
+public class ComposedPointFilterTest {
+    /**
+     * The filters whose filterPixel() computes the expected pixels.
+     */
+    private static final PointFilter sGRAY_SCALE =
+        new GrayScaleFilter("GrayScaleFilter");
+    private static final PointFilter sINVERT =
+        new InvertFilter("InvertFilter");
+    private static final PointFilter sTHRESHOLD =
+        new ThresholdFilter("ThresholdFilter", 128);
+
+    /**
+     * The longest row that's filtered, which covers several vectors
+     * and every possible remainder.
+     */
+    private static final int sMAX_LENGTH = 70;
+
+    /**
+     * Restore the default Options after each test.
+     */
+    @AfterEach
+    public void resetOptions() {
+        TestImages.resetOptions();
+    }
+
+    /**
+     * Composing a composed filter flattens the chain, which is named
+     * after its filters and applies them in order.
+     */
+    @Test
+    public void chainIsFlattenedAndNamed() {
+        PointFilter nested = sGRAY_SCALE
+            .andThen(sINVERT.andThen(sTHRESHOLD));
+
+        assertEquals("GrayScaleFilter-InvertFilter-ThresholdFilter",
+                     nested.getName());
+        assertEquals(chain().getName(), nested.getName());
+
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; ++i) {
+            int argb = random.nextInt();
+            assertEquals(expected(argb), nested.filterPixel(argb));
+        }
+    }
+
+    /**
+     * Rows of every length filtered by the chain match filterPixel()
+     * of each filter in turn, with and without the Vector API.
+     */
+    @Test
+    public void rowsMatchEachFilterInTurn() {
+        Random random = new Random(42);
+        int[] source = new int[sMAX_LENGTH + 3];
+        for (int i = 0; i < source.length; ++i)
+            source[i] = random.nextInt();
+
+        for (String simd : new String[] {"false", "true"}) {
+            Options.instance().parseArgs(new String[] {"-v", simd});
+
+            // Make a new chain, since each filter picks its row kernel
+            // the first time it's used.
+            PointFilter chain = chain();
+
+            for (int length = 0; length <= sMAX_LENGTH; ++length) {
+                int[] filtered = new int[length + 5];
+                chain.filterRow(source, 3, filtered, 5, length);
+
+                for (int i = 0; i < length; ++i)
+                    assertEquals(expected(source[3 + i]), filtered[5 + i],
+                                 "simd " + simd + ", length " + length
+                                 + ", pixel " + i);
+            }
+        }
+    }
+
+    /**
+     * Check the PIXEL implementation, which reads and writes rows via
+     * getRGB() and setRGB().
+     */
+    @Test
+    public void pixelMatchesReference() {
+        checkAllImages("PIXEL");
+    }
+
+    /**
+     * Check the PACKED implementation, which filters the int arrays
+     * of PackedImages.
+     */
+    @Test
+    public void packedMatchesReference() {
+        checkAllImages("PACKED");
+    }
+
+    /**
+     * Check every test image with the given filter
+     * {@code implementation}.
+     */
+    private static void checkAllImages(String implementation) {
+        Options.instance().parseArgs(new String[] {"-i", implementation});
+        PointFilter chain = chain();
+
+        for (int type : TestImages.TYPES)
+            for (int[] size : TestImages.SIZES) {
+                BufferedImage source =
+                    TestImages.random(size[0], size[1], type);
+                Image result = chain.filter(TestImages.image(source));
+
+                assertEquals(chain.getName(), result.getFilterName());
+                TestImages.assertSamePixels
+                    (TestImages.reference(source,
+                                          ComposedPointFilterTest::expected),
+                     result.getImage());
+            }
+    }
+
+    /**
+     * @return A new chain of new instances of the three filters.
+     */
+    private static PointFilter chain() {
+        return new GrayScaleFilter("GrayScaleFilter")
+            .andThen(new InvertFilter("InvertFilter"))
+            .andThen(new ThresholdFilter("ThresholdFilter", 128));
+    }
+
+    /**
+     * @return The {@code argb} pixel filtered by each filter in turn.
+     */
+    private static int expected(int argb) {
+        return sTHRESHOLD.filterPixel
+            (sINVERT.filterPixel(sGRAY_SCALE.filterPixel(argb)));
+    }
+}
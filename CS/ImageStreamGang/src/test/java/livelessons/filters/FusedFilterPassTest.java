@@ -0,0 +1,91 @@
+package livelessons.filters;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+import livelessons.TestImages;
+import livelessons.utils.Image;
+import livelessons.utils.Options;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Checks that a FusedFilterPass, which reads each source row once
+ * for all the point filters, produces the same pixels as applying
+ * each filter separately via getRGB() and setRGB().
+ */
+public class FusedFilterPassTest {
+    /**
+     * The point filters that are fused, plus a filter that isn't a
+     * point filter and is applied on its own.
+     */
+    private static final List<Filter> sFILTERS = List.of
+        (new GrayScaleFilter("GrayScaleFilter"),
+         new NullFilter("NullFilter"),
+         new InvertFilter("InvertFilter"),
+         new ThresholdFilter("ThresholdFilter", 128));
+
+    /**
+     * Restore the default Options after each test.
+     */
+    @AfterEach
+    public void resetOptions() {
+        TestImages.resetOptions();
+    }
+
+    /**
+     * Check the PIXEL implementation, which reads and writes rows via
+     * getRGB() and setRGB().
+     */
+    @Test
+    public void pixelMatchesReference() {
+        checkAllImages("PIXEL");
+    }
+
+    /**
+     * Check the PACKED implementation, which filters the int arrays
+     * of PackedImages.
+     */
+    @Test
+    public void packedMatchesReference() {
+        checkAllImages("PACKED");
+    }
+
+    /**
+     * Check every test image with the given filter
+     * {@code implementation}.
+     */
+    private static void checkAllImages(String implementation) {
+        Options.instance().parseArgs(new String[] {"-i", implementation});
+
+        for (int type : TestImages.TYPES)
+            for (int[] size : TestImages.SIZES)
+                check(TestImages.random(size[0], size[1], type));
+    }
+
+    /**
+     * Check the fused results for the {@code source} image.
+     */
+    private static void check(BufferedImage source) {
+        Image image = TestImages.image(source);
+        List<Image> results = FusedFilterPass.filter(sFILTERS, image);
+
+        assertEquals(sFILTERS.size(), results.size());
+        for (int i = 0; i < sFILTERS.size(); ++i) {
+            Filter filter = sFILTERS.get(i);
+            Image result = results.get(i);
+            assertEquals(filter.getName(), result.getFilterName());
+
+            if (filter instanceof PointFilter pointFilter)
+                TestImages.assertSamePixels
+                    (TestImages.reference(source, pointFilter::filterPixel),
+                     result.getImage());
+            else
+                assertSame(image, result);
+        }
+    }
+}
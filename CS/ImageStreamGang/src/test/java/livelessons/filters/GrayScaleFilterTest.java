@@ -0,0 +1,52 @@
+package livelessons.filters;
+
+import java.awt.image.BufferedImage;
+
+import livelessons.TestImages;
+import livelessons.platspec.PlatSpec;
+import livelessons.utils.Image;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that the RASTER implementation of GrayScaleFilter, which
+ * works on the array that backs the raster, produces the same pixels
+ * as the PIXEL implementation, which uses getRGB() and setRGB().
+ */
+public class GrayScaleFilterTest {
+    /**
+     * Compare both implementations for every supported layout.
+     */
+    @Test
+    public void rasterMatchesPixel() {
+        for (int type : TestImages.TYPES)
+            for (int[] size : TestImages.SIZES) {
+                BufferedImage source =
+                    TestImages.random(size[0], size[1], type);
+
+                Image expected =
+                    PlatSpec.applyFilter(TestImages.image(source));
+                Image actual =
+                    PlatSpec.applyFilterRaster(TestImages.image(source));
+
+                TestImages.assertSamePixels(expected.getImage(),
+                                            actual.getImage());
+            }
+    }
+
+    /**
+     * Layouts the RASTER implementation doesn't handle directly fall
+     * back to the PIXEL implementation.
+     */
+    @Test
+    public void otherLayoutsFallBack() {
+        BufferedImage source =
+            TestImages.random(37, 23, BufferedImage.TYPE_INT_BGR);
+
+        Image expected = PlatSpec.applyFilter(TestImages.image(source));
+        Image actual = PlatSpec.applyFilterRaster(TestImages.image(source));
+
+        TestImages.assertSamePixels(expected.getImage(),
+                                    actual.getImage());
+    }
+}
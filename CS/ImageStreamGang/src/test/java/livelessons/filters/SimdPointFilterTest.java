@@ -0,0 +1,112 @@
+package livelessons.filters;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import livelessons.TestImages;
+import livelessons.utils.Image;
+import livelessons.utils.Options;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the SIMD kernel of GrayScaleFilter, together with the
+ * scalar loop that filters the pixels that don't fill a vector,
+ * produces the same pixels as filterPixel() and the getRGB()/setRGB()
+ * reference.
+ */
+public class SimdPointFilterTest {
+    /**
+     * The longest row that's filtered, which covers several vectors
+     * and every possible remainder.
+     */
+    private static final int sMAX_LENGTH = 70;
+
+    /**
+     * Restore the default Options after each test.
+     */
+    @AfterEach
+    public void resetOptions() {
+        TestImages.resetOptions();
+    }
+
+    /**
+     * Rows of every length filtered by the SIMD kernel match
+     * filterPixel(), at any offset in the source and target arrays.
+     */
+    @Test
+    public void simdRowsMatchFilterPixel() {
+        Options.instance().parseArgs(new String[] {"-v", "true"});
+        assertTrue(Options.instance().simdEnabled(),
+                   "the tests must run with the Vector API module");
+
+        checkRows(new GrayScaleFilter("GrayScaleFilter"));
+    }
+
+    /**
+     * Rows filtered by the scalar loop alone also match
+     * filterPixel().
+     */
+    @Test
+    public void scalarRowsMatchFilterPixel() {
+        Options.instance().parseArgs(new String[] {"-v", "false"});
+
+        checkRows(new GrayScaleFilter("GrayScaleFilter"));
+    }
+
+    /**
+     * Whole images filtered with the SIMD kernel by the PACKED
+     * implementation match the getRGB()/setRGB() reference.
+     */
+    @Test
+    public void simdImagesMatchReference() {
+        Options.instance().parseArgs(new String[] {"-v", "true",
+                                                   "-i", "PACKED"});
+        GrayScaleFilter filter = new GrayScaleFilter("GrayScaleFilter");
+
+        for (int type : TestImages.TYPES)
+            for (int[] size : TestImages.SIZES) {
+                BufferedImage source =
+                    TestImages.random(size[0], size[1], type);
+                Image result = filter.filter(TestImages.image(source));
+
+                TestImages.assertSamePixels
+                    (TestImages.reference(source, filter::filterPixel),
+                     result.getImage());
+            }
+    }
+
+    /**
+     * Check rows of every length up to sMAX_LENGTH, both copied to a
+     * different array and filtered in place.
+     */
+    private static void checkRows(PointFilter filter) {
+        Random random = new Random(42);
+        int[] source = new int[sMAX_LENGTH + 3];
+        for (int i = 0; i < source.length; ++i) {
+            source[i] = random.nextInt();
+            if (random.nextInt(8) == 0)
+                source[i] &= 0x00FFFFFF;
+        }
+
+        for (int length = 0; length <= sMAX_LENGTH; ++length) {
+            int[] filtered = new int[length + 5];
+            filter.filterRow(source, 3, filtered, 5, length);
+
+            int[] inPlace = source.clone();
+            filter.filterRow(inPlace, 3, inPlace, 3, length);
+
+            for (int i = 0; i < length; ++i) {
+                int expected = filter.filterPixel(source[3 + i]);
+                assertEquals(expected, filtered[5 + i],
+                             "length " + length + ", pixel " + i);
+                assertEquals(expected, inPlace[3 + i],
+                             "in place, length " + length + ", pixel " + i);
+            }
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package livelessons.utils;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import livelessons.TestImages;
+import livelessons.platspec.PlatSpec;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the tiled Convolution engine produces the same pixels
+ * (to within rounding) as a direct convolution of the getRGB()
+ * pixels, with and without the Vector API, including at the edges of
+ * its tiles and their halos.
+ */
+public class ConvolutionTest {
+    /**
+     * The sizes that are checked against the reference.  The largest
+     * one spans two columns and three rows of tiles, and none fills a
+     * whole tile.  All are processed in one band, which is checked
+     * separately by rowBandsMatchSequential().
+     */
+    private static final int[][] sSIZES = {
+        {1, 1},
+        {37, 23},
+        {301, 131}
+    };
+
+    /**
+     * A kernel whose row and column weights differ and aren't
+     * symmetric, so mixing up the axes or flipping a kernel is
+     * detected.
+     */
+    private static final Convolution.Kernel sASYMMETRIC_KERNEL =
+        new Convolution.Kernel(new float[] {0.1f, 0.2f, 0.7f},
+                               new float[] {0.05f, 0.15f, 0.4f, 0.3f, 0.1f});
+
+    /**
+     * Each channel may differ from the reference by this much, since
+     * the engine sums floats in a different order.
+     */
+    private static final int sTOLERANCE = 1;
+
+    /**
+     * Restore the default Options after each test.
+     */
+    @AfterEach
+    public void resetOptions() {
+        TestImages.resetOptions();
+    }
+
+    /**
+     * The scalar engine matches the reference.
+     */
+    @Test
+    public void scalarMatchesReference() {
+        Options.instance().parseArgs(new String[] {"-v", "false"});
+        checkAllImages();
+    }
+
+    /**
+     * The engine matches the reference with the Vector API.
+     */
+    @Test
+    public void simdMatchesReference() {
+        Options.instance().parseArgs(new String[] {"-v", "true"});
+        assertTrue(Options.instance().simdEnabled(),
+                   "the tests must run with the Vector API module");
+        checkAllImages();
+    }
+
+    /**
+     * Resampling an image of a single color keeps that color, with
+     * and without the Vector API.
+     */
+    @Test
+    public void resamplingKeepsUniformColor() {
+        for (String simd : new String[] {"false", "true"}) {
+            Options.instance().parseArgs(new String[] {"-v", simd});
+
+            for (boolean alpha : new boolean[] {false, true}) {
+                int color = alpha ? 0x80336699 : 0xFF336699;
+                PackedImage source = new PackedImage(301, 131, alpha);
+                Arrays.fill(source.getPixels(), color);
+
+                PackedImage target = new PackedImage(97, 45, alpha);
+                Convolution.resample(source, target);
+
+                for (int y = 0; y < target.getHeight(); ++y)
+                    for (int x = 0; x < target.getWidth(); ++x)
+                        assertClose(color, target.getPixel(x, y), x, y);
+            }
+        }
+    }
+
+    /**
+     * Convolving an image large enough to be split into row bands
+     * gives the same pixels as convolving it in one band, with and
+     * without the Vector API and alpha.
+     */
+    @Test
+    public void rowBandsMatchSequential() {
+        for (String simd : new String[] {"false", "true"})
+            for (int type : new int[] {BufferedImage.TYPE_INT_RGB,
+                                       BufferedImage.TYPE_INT_ARGB}) {
+                PackedImage source =
+                    PlatSpec.toPackedImage(TestImages.random(1100, 1000, type));
+
+                Options.instance().parseArgs(new String[] {"-v", simd,
+                                                           "-b", "false"});
+                PackedImage sequential = convolve(source);
+
+                Options.instance().parseArgs(new String[] {"-v", simd,
+                                                           "-b", "true"});
+                PackedImage banded = convolve(source);
+
+                assertArrayEquals(sequential.getPixels(),
+                                  banded.getPixels(),
+                                  "simd " + simd + ", type " + type);
+            }
+    }
+
+    /**
+     * @return The {@code source} convolved with the asymmetric kernel.
+     */
+    private static PackedImage convolve(PackedImage source) {
+        PackedImage target = new PackedImage(source.getWidth(),
+                                             source.getHeight(),
+                                             source.hasAlpha());
+        Convolution.convolve(source, target, sASYMMETRIC_KERNEL);
+        return target;
+    }
+
+    /**
+     * Check every size, with and without alpha, with a Gaussian and
+     * an asymmetric kernel.
+     */
+    private static void checkAllImages() {
+        for (int type : new int[] {BufferedImage.TYPE_INT_RGB,
+                                   BufferedImage.TYPE_INT_ARGB})
+            for (int[] size : sSIZES) {
+                BufferedImage image =
+                    TestImages.random(size[0], size[1], type);
+                check(image, Convolution.Kernel.gaussian(2, 1.0));
+                check(image, sASYMMETRIC_KERNEL);
+            }
+    }
+
+    /**
+     * Check the convolution of the {@code image} with the {@code
+     * kernel}.
+     */
+    private static void check(BufferedImage image,
+                              Convolution.Kernel kernel) {
+        PackedImage source = PlatSpec.toPackedImage(image);
+        PackedImage target = new PackedImage(source.getWidth(),
+                                             source.getHeight(),
+                                             source.hasAlpha());
+        Convolution.convolve(source, target, kernel);
+
+        for (int y = 0; y < image.getHeight(); ++y)
+            for (int x = 0; x < image.getWidth(); ++x)
+                assertClose(reference(image, kernel, x, y),
+                            target.getPixel(x, y),
+                            x, y);
+    }
+
+    /**
+     * @return The pixel at ({@code x}, {@code y}) of the {@code
+     *         image} convolved with the {@code kernel}, computed
+     *         directly from the getRGB() pixels in double precision,
+     *         with the edges clamped and the colors premultiplied by
+     *         alpha if the image has an alpha channel
+     */
+    private static int reference(BufferedImage image,
+                                 Convolution.Kernel kernel,
+                                 int x,
+                                 int y) {
+        boolean hasAlpha = image.getColorModel().hasAlpha();
+        float[] rowWeights = kernel.rowWeights();
+        float[] columnWeights = kernel.columnWeights();
+        double[] sums = new double[4];
+
+        for (int j = 0; j < columnWeights.length; ++j)
+            for (int i = 0; i < rowWeights.length; ++i) {
+                int argb =
+                    image.getRGB(clamp(x - kernel.rowRadius() + i,
+                                       image.getWidth()),
+                                 clamp(y - kernel.columnRadius() + j,
+                                       image.getHeight()));
+                double weight = (double) rowWeights[i] * columnWeights[j];
+                double alpha = hasAlpha ? argb >>> 24 : 255;
+                double scale = alpha / 255;
+
+                sums[0] += weight * ((argb >> 16) & 0xFF) * scale;
+                sums[1] += weight * ((argb >> 8) & 0xFF) * scale;
+                sums[2] += weight * (argb & 0xFF) * scale;
+                sums[3] += weight * alpha;
+            }
+
+        int alpha = toByte(sums[3]);
+        double scale = alpha == 0 ? 0 : 255 / sums[3];
+        return alpha << 24
+            | toByte(sums[0] * scale) << 16
+            | toByte(sums[1] * scale) << 8
+            | toByte(sums[2] * scale);
+    }
+
+    /**
+     * Assert that each channel of the {@code actual} pixel at ({@code
+     * x}, {@code y}) is within sTOLERANCE of the {@code expected}
+     * pixel.
+     */
+    private static void assertClose(int expected,
+                                     int actual,
+                                     int x,
+                                     int y) {
+        for (int shift = 0; shift < 32; shift += 8) {
+            int difference = ((expected >>> shift) & 0xFF)
+                - ((actual >>> shift) & 0xFF);
+            assertTrue(Math.abs(difference) <= sTOLERANCE,
+                       "pixel (" + x + ", " + y + "): expected "
+                       + Integer.toHexString(expected) + " but was "
+                       + Integer.toHexString(actual));
+        }
+    }
+
+    /**
+     * @return {@code value} rounded to the nearest integer in [0,
+     *         255].
+     */
+    private static int toByte(double value) {
+        return (int) Math.min(Math.max(Math.round(value), 0), 255);
+    }
+
+    /**
+     * @return {@code index} clamped to [0, {@code size}).
+     */
+    private static int clamp(int index, int size) {
+        return Math.min(Math.max(index, 0), size - 1);
+    }
+}
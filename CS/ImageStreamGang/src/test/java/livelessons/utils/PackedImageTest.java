@@ -0,0 +1,90 @@
+package livelessons.utils;
+
+import java.awt.image.BufferedImage;
+
+import livelessons.TestImages;
+import livelessons.platspec.PlatSpec;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks that converting images to PackedImages and back preserves
+ * the getRGB() value of every pixel.
+ */
+public class PackedImageTest {
+    /**
+     * Each pixel of a PackedImage is the getRGB() value of the
+     * pixel it was converted from, and converting it back to a
+     * BufferedImage restores the original pixels.
+     */
+    @Test
+    public void roundTripPreservesPixels() {
+        for (int type : TestImages.TYPES)
+            for (int[] size : TestImages.SIZES) {
+                BufferedImage source =
+                    TestImages.random(size[0], size[1], type);
+
+                PackedImage packedImage = PlatSpec.toPackedImage(source);
+                assertEquals(source.getColorModel().hasAlpha(),
+                             packedImage.hasAlpha());
+                for (int y = 0; y < source.getHeight(); ++y)
+                    for (int x = 0; x < source.getWidth(); ++x)
+                        assertEquals(source.getRGB(x, y),
+                                     packedImage.getPixel(x, y),
+                                     "pixel (" + x + ", " + y + ")");
+
+                TestImages.assertSamePixels
+                    (source, PlatSpec.toBufferedImage(packedImage));
+            }
+    }
+
+    /**
+     * The PackedImage of an Image matches its decoded pixels.
+     */
+    @Test
+    public void imageProvidesPackedPixels() {
+        for (int type : TestImages.TYPES) {
+            BufferedImage source = TestImages.random(37, 23, type);
+            Image image = TestImages.image(source);
+
+            TestImages.assertSamePixels
+                (source,
+                 PlatSpec.toBufferedImage(image.getPackedImage()));
+        }
+    }
+
+    /**
+     * A PackedImage can view a window of a larger array, whose rows
+     * start at an offset and are a stride apart.
+     */
+    @Test
+    public void windowUsesOffsetAndStride() {
+        int[] pixels = new int[5 * 7];
+        PackedImage window = new PackedImage(pixels, 6, 3, 4, 7, true);
+
+        for (int y = 0; y < window.getHeight(); ++y)
+            for (int x = 0; x < window.getWidth(); ++x)
+                window.setPixel(x, y, y << 8 | x);
+
+        assertEquals(6 + 2 * 7, window.rowOffset(2));
+        assertEquals(2 << 8 | 1, pixels[6 + 2 * 7 + 1]);
+        assertEquals(0, pixels[6 + 3]);
+
+        BufferedImage bufferedImage = PlatSpec.toBufferedImage(window);
+        for (int y = 0; y < window.getHeight(); ++y)
+            for (int x = 0; x < window.getWidth(); ++x)
+                assertEquals(y << 8 | x, bufferedImage.getRGB(x, y));
+    }
+
+    /**
+     * A window must fit in its array.
+     */
+    @Test
+    public void windowMustFit() {
+        assertThrows(IllegalArgumentException.class,
+                     () -> new PackedImage(new int[20], 6, 3, 4, 4, false));
+    }
+}
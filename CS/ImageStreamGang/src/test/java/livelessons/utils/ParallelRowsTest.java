@@ -0,0 +1,126 @@
+package livelessons.utils;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import livelessons.TestImages;
+import livelessons.filters.GrayScaleFilter;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that ParallelRows splits images above its threshold into
+ * bands that cover every row exactly once, and that filtering such an
+ * image in bands gives the same pixels as filtering it sequentially.
+ */
+public class ParallelRowsTest {
+    /**
+     * The size of the test images, which have more pixels than the
+     * threshold above which ParallelRows splits images into bands.
+     */
+    private static final int sWIDTH = 1100;
+    private static final int sHEIGHT = 1000;
+
+    /**
+     * Bands are only split at multiples of this many rows.
+     */
+    private static final int sMIN_ROWS = 64;
+
+    /**
+     * Restore the default Options after each test.
+     */
+    @AfterEach
+    public void resetOptions() {
+        TestImages.resetOptions();
+    }
+
+    /**
+     * In row-band mode the image is split into several bands, each of
+     * which starts at a multiple of the minimum number of rows, and
+     * every row is processed exactly once.
+     */
+    @Test
+    public void bandsCoverEveryRowOnce() {
+        Options.instance().parseArgs(new String[] {"-b", "true"});
+
+        AtomicIntegerArray rowCounts = new AtomicIntegerArray(sHEIGHT);
+        List<Integer> fromRows = new CopyOnWriteArrayList<>();
+        ParallelRows.forEachRowBand(sWIDTH,
+                                    sHEIGHT,
+                                    sMIN_ROWS,
+                                    (fromRow, toRow) -> {
+                                        fromRows.add(fromRow);
+                                        for (int y = fromRow; y < toRow; ++y)
+                                            rowCounts.incrementAndGet(y);
+                                    });
+
+        assertTrue(fromRows.size() > 1, "the image wasn't split");
+        for (int fromRow : fromRows)
+            assertEquals(0, fromRow % sMIN_ROWS, "band at row " + fromRow);
+        for (int y = 0; y < sHEIGHT; ++y)
+            assertEquals(1, rowCounts.get(y), "row " + y);
+    }
+
+    /**
+     * Without row-band mode the image is processed in one band.
+     */
+    @Test
+    public void sequentialUsesOneBand() {
+        Options.instance().parseArgs(new String[] {"-b", "false"});
+
+        List<int[]> bands = new CopyOnWriteArrayList<>();
+        ParallelRows.forEachRowBand(sWIDTH,
+                                    sHEIGHT,
+                                    (fromRow, toRow) ->
+                                    bands.add(new int[] {fromRow, toRow}));
+
+        assertEquals(1, bands.size());
+        assertEquals(0, bands.get(0)[0]);
+        assertEquals(sHEIGHT, bands.get(0)[1]);
+    }
+
+    /**
+     * Every filter implementation gives the same pixels whether the
+     * image is filtered in bands or sequentially, with and without
+     * alpha.
+     */
+    @Test
+    public void bandedFilterMatchesSequential() {
+        for (String implementation : new String[] {"PIXEL",
+                                                   "RASTER",
+                                                   "PACKED"})
+            for (int type : new int[] {BufferedImage.TYPE_INT_RGB,
+                                       BufferedImage.TYPE_INT_ARGB}) {
+                BufferedImage source =
+                    TestImages.random(sWIDTH, sHEIGHT, type);
+
+                BufferedImage sequential =
+                    filter(source, implementation, "false");
+                BufferedImage banded =
+                    filter(source, implementation, "true");
+
+                TestImages.assertSamePixels(sequential, banded);
+            }
+    }
+
+    /**
+     * @return The {@code source} filtered by a GrayScaleFilter with
+     *         the given filter {@code implementation} and row-band
+     *         mode
+     */
+    private static BufferedImage filter(BufferedImage source,
+                                        String implementation,
+                                        String rowBands) {
+        Options.instance().parseArgs(new String[] {"-i", implementation,
+                                                   "-b", rowBands});
+        return new GrayScaleFilter("GrayScaleFilter")
+            .filter(TestImages.image(source))
+            .getImage();
+    }
+}